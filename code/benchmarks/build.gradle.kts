@@ -0,0 +1,31 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+plugins {
+    id("com.glitchybyte.java-common-conventions")
+    id("me.champeau.jmh") version "0.6.8"
+    id("com.google.cloud.artifactregistry.gradle-plugin") version "2.2.0"
+}
+
+repositories {
+    maven {
+        url = uri("artifactregistry://us-west1-maven.pkg.dev/glitchybyte-cloud/public-maven")
+    }
+}
+
+dependencies {
+    jmh(project(":codemasher"))
+}
+
+jmh {
+    jmhVersion.set("1.36")
+    // Throughput, and latency percentiles.
+    benchmarkMode.set(listOf("thrpt", "sample"))
+    timeUnit.set("ms")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    // Allocation rate.
+    profilers.set(listOf("gc"))
+    resultFormat.set("JSON")
+}
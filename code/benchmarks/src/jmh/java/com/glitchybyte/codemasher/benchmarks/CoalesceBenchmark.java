@@ -0,0 +1,59 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.benchmarks;
+
+import com.glitchybyte.codemasher.masher.Coalescer;
+import com.glitchybyte.codemasher.masher.GraphicPool;
+import com.glitchybyte.codemasher.masher.JavaFile;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coalescing already parsed files into the main class.
+ */
+@State(Scope.Benchmark)
+public class CoalesceBenchmark {
+
+    @Param({ "10", "100", "1000", "5000" })
+    public int fileCount;
+
+    @Param({ "SMALL", "TABLES" })
+    public SyntheticCorpus.Shape shape;
+
+    private SyntheticCorpus corpus;
+    private List<JavaFile> javaFiles;
+    private GraphicPool graphicPool;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        corpus = SyntheticCorpus.create(fileCount, shape);
+        javaFiles = new ArrayList<>(corpus.paths.size());
+        for (final Path path: corpus.paths) {
+            javaFiles.add(JavaFile.from(path));
+        }
+        graphicPool = Coalescer.createStampGraphicPool();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        graphicPool.close();
+        corpus.close();
+    }
+
+    @Benchmark
+    public Coalescer.Result coalesce() {
+        return new Coalescer(javaFiles, corpus.getMainPath(), false, false, graphicPool, false)
+                .coalesce();
+    }
+
+    @Benchmark
+    public Coalescer.Result coalesceShakenAndMinified() {
+        return new Coalescer(javaFiles, corpus.getMainPath(), true, true, graphicPool, false)
+                .coalesce();
+    }
+}
@@ -0,0 +1,58 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.benchmarks;
+
+import com.glitchybyte.codemasher.masher.Coalescer;
+import com.glitchybyte.codemasher.masher.CompileService;
+import com.glitchybyte.codemasher.masher.GraphicPool;
+import com.glitchybyte.codemasher.masher.JavaFile;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checking that a coalesced class compiles, with a warm compile service.
+ */
+@State(Scope.Benchmark)
+public class CompileBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    public int fileCount;
+
+    @Param({ "SMALL", "TABLES" })
+    public SyntheticCorpus.Shape shape;
+
+    private CompileService compileService;
+    private String code;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        try (final SyntheticCorpus corpus = SyntheticCorpus.create(fileCount, shape);
+                final GraphicPool graphicPool = Coalescer.createStampGraphicPool()) {
+            final List<JavaFile> javaFiles = new ArrayList<>(corpus.paths.size());
+            for (final Path path: corpus.paths) {
+                javaFiles.add(JavaFile.from(path));
+            }
+            code = new Coalescer(javaFiles, corpus.getMainPath(), false, false, graphicPool, false)
+                    .coalesce().code();
+        }
+        compileService = new CompileService();
+        if (!compileService.compile(SyntheticCorpus.MAIN_CLASS_NAME, code, () -> false).isSuccess()) {
+            throw new IllegalStateException("Synthetic corpus doesn't compile.");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        compileService.close();
+    }
+
+    @Benchmark
+    public CompileService.Result compile() {
+        return compileService.compile(SyntheticCorpus.MAIN_CLASS_NAME, code, () -> false);
+    }
+}
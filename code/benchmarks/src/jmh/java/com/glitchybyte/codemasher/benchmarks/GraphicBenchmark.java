@@ -0,0 +1,50 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.benchmarks;
+
+import com.glitchybyte.codemasher.masher.Coalescer;
+import com.glitchybyte.codemasher.masher.Graphic;
+import com.glitchybyte.codemasher.masher.GraphicPool;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+
+/**
+ * Getting the update stamp graphic, as every build does.
+ */
+@State(Scope.Benchmark)
+public class GraphicBenchmark {
+
+    private GraphicPool graphicPool;
+    private long seed = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        graphicPool = Coalescer.createStampGraphicPool();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        graphicPool.close();
+    }
+
+    @Benchmark
+    public String[] graphic() {
+        return new Graphic(40, 5, 10).toStringArray();
+    }
+
+    @Benchmark
+    public String[] seededGraphic() {
+        return new Graphic(40, 5, 10, new Random(++seed)).toStringArray();
+    }
+
+    /**
+     * Taking from the pool as fast as possible drains it, so this mostly measures drawing on the spot while the
+     * producer competes for the CPU. Builds come far less often than this.
+     */
+    @Benchmark
+    public String[] pooledGraphic() {
+        return graphicPool.take();
+    }
+}
@@ -0,0 +1,39 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.benchmarks;
+
+import com.glitchybyte.codemasher.masher.JavaFile;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Reading and parsing a single Java file.
+ */
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    @Param({ "SMALL", "TABLES" })
+    public SyntheticCorpus.Shape shape;
+
+    private SyntheticCorpus corpus;
+    private Path path;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        corpus = SyntheticCorpus.createSingleFile(shape);
+        path = corpus.paths.get(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        corpus.close();
+    }
+
+    @Benchmark
+    public JavaFile parse() throws IOException {
+        return JavaFile.from(path);
+    }
+}
@@ -0,0 +1,83 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.benchmarks;
+
+import com.glitchybyte.codemasher.masher.Coalescer;
+import com.glitchybyte.codemasher.masher.CompileService;
+import com.glitchybyte.codemasher.masher.GraphicPool;
+import com.glitchybyte.codemasher.masher.JavaFile;
+import com.glitchybyte.codemasher.masher.JavaFileCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The work a single saved file triggers: the changed file is parsed again, everything else comes from the cache,
+ * and the result is coalesced and compiled. The same stages the masher runs on a source change, minus watching,
+ * scanning, and publishing.
+ */
+@State(Scope.Benchmark)
+public class RebuildBenchmark {
+
+    @Param({ "10", "100", "1000", "5000" })
+    public int fileCount;
+
+    @Param({ "SMALL", "TABLES" })
+    public SyntheticCorpus.Shape shape;
+
+    private SyntheticCorpus corpus;
+    private JavaFileCache javaFileCache;
+    private CompileService compileService;
+    private GraphicPool graphicPool;
+    private int changedIndex = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        corpus = SyntheticCorpus.create(fileCount, shape);
+        javaFileCache = new JavaFileCache(false);
+        for (final Path path: corpus.paths) {
+            javaFileCache.lookup(path);
+        }
+        compileService = new CompileService();
+        compileService.warmUp();
+        graphicPool = Coalescer.createStampGraphicPool();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        graphicPool.close();
+        compileService.close();
+        corpus.close();
+    }
+
+    @Benchmark
+    public Coalescer.Result rebuildWithoutCompile() throws IOException {
+        return coalesce(parseAfterChange());
+    }
+
+    @Benchmark
+    public CompileService.Result rebuild() throws IOException {
+        final Coalescer.Result coalesced = coalesce(parseAfterChange());
+        return compileService.compile(SyntheticCorpus.MAIN_CLASS_NAME, coalesced.code(), () -> false);
+    }
+
+    private List<JavaFile> parseAfterChange() throws IOException {
+        final List<Path> paths = corpus.paths;
+        changedIndex = (changedIndex + 1) % paths.size();
+        javaFileCache.invalidate(paths.get(changedIndex));
+        final List<JavaFile> javaFiles = new ArrayList<>(paths.size());
+        for (final Path path: paths) {
+            javaFiles.add(javaFileCache.lookup(path).javaFile());
+        }
+        return javaFiles;
+    }
+
+    private Coalescer.Result coalesce(final List<JavaFile> javaFiles) {
+        return new Coalescer(javaFiles, corpus.getMainPath(), false, false, graphicPool, false)
+                .coalesce();
+    }
+}
@@ -0,0 +1,219 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generated bot sources to benchmark against.
+ * <p>
+ * A corpus is a main class plus a number of helper classes, shaped like a real bot: records, enums, classes with
+ * loops and comments. In the {@link Shape#TABLES} shape every tenth helper is instead a huge generated lookup
+ * table, like the precomputed data bots embed to stay under the time limit. Generation is seeded, so the same
+ * parameters always produce the same corpus.
+ */
+public final class SyntheticCorpus implements AutoCloseable {
+
+    /**
+     * Corpus shapes.
+     */
+    public enum Shape {
+        /**
+         * Only small, ordinary files.
+         */
+        SMALL,
+
+        /**
+         * Ordinary files with a huge lookup table every tenth file.
+         */
+        TABLES
+    }
+
+    /**
+     * Main class name.
+     */
+    public static final String MAIN_CLASS_NAME = "Player";
+
+    /**
+     * Rows in a generated lookup table. Kept under the size of code javac accepts in a static initializer.
+     */
+    private static final int TABLE_ROWS = 500;
+
+    public final Path directory;
+    public final List<Path> paths;
+
+    private SyntheticCorpus(final Path directory, final List<Path> paths) {
+        this.directory = directory;
+        this.paths = paths;
+    }
+
+    /**
+     * Returns the path of the main class file. Only meaningful for a corpus made with {@link #create}.
+     *
+     * @return The path of the main class file.
+     */
+    public Path getMainPath() {
+        return directory.resolve(MAIN_CLASS_NAME + ".java");
+    }
+
+    /**
+     * Generates a corpus in a new temporary directory.
+     *
+     * @param helperCount Number of files besides the main class.
+     * @param shape Corpus shape.
+     * @return The corpus.
+     * @throws IOException If there is a problem writing the files.
+     */
+    public static SyntheticCorpus create(final int helperCount, final Shape shape) throws IOException {
+        final Path directory = Files.createTempDirectory("codemasher-corpus-");
+        final Random random = new Random(helperCount * 31L + shape.ordinal());
+        final List<Path> paths = new ArrayList<>(helperCount + 1);
+        paths.add(write(directory, MAIN_CLASS_NAME, mainClass(helperCount)));
+        for (int i = 0; i < helperCount; ++i) {
+            final String name = helperName(i);
+            final String code = (shape == Shape.TABLES) && ((i % 10) == 9) ?
+                    tableClass(name, random) :
+                    helperClass(name, i, helperCount, random);
+            paths.add(write(directory, name, code));
+        }
+        return new SyntheticCorpus(directory, List.copyOf(paths));
+    }
+
+    /**
+     * Generates a single file.
+     *
+     * @param shape Shape of the file. {@link Shape#TABLES} generates a lookup table.
+     * @return The file's directory, with the file in it.
+     * @throws IOException If there is a problem writing the file.
+     */
+    public static SyntheticCorpus createSingleFile(final Shape shape) throws IOException {
+        final Path directory = Files.createTempDirectory("codemasher-file-");
+        final Random random = new Random(shape.ordinal());
+        final String name = helperName(0);
+        final String code = shape == Shape.TABLES ? tableClass(name, random) : helperClass(name, 0, 1, random);
+        return new SyntheticCorpus(directory, List.of(write(directory, name, code)));
+    }
+
+    @Override
+    public void close() throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir, final IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static Path write(final Path directory, final String name, final String code) throws IOException {
+        return Files.writeString(directory.resolve(name + ".java"), code);
+    }
+
+    private static String helperName(final int index) {
+        return String.format("Helper%04d", index);
+    }
+
+    private static String mainClass(final int helperCount) {
+        final StringBuilder sb = new StringBuilder(1024);
+        sb.append("import java.util.*;\n\n");
+        sb.append("class ").append(MAIN_CLASS_NAME).append(" {\n\n");
+        sb.append("    // [[CM::UPDATESTAMP]]\n\n");
+        sb.append("    public static void main(String[] args) {\n");
+        sb.append("        Scanner in = new Scanner(System.in);\n");
+        sb.append("        long total = 0;\n");
+        // Reference a few helpers, like a real bot's entry point would.
+        for (int i = 0; i < Math.min(helperCount, 8); ++i) {
+            sb.append("        total += new ").append(helperName(i)).append("(").append(i).append(").score(").append(i)
+                    .append(");\n");
+        }
+        sb.append("        System.out.println(total);\n");
+        sb.append("    }\n\n");
+        sb.append("    // [[CM::CODE]]\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static String helperClass(final String name, final int index, final int helperCount, final Random random) {
+        final String next = index + 1 < helperCount ? helperName(index + 1) : null;
+        final StringBuilder sb = new StringBuilder(2048);
+        sb.append("import java.util.ArrayList;\n");
+        sb.append("import java.util.List;\n");
+        sb.append("import java.util.Map;\n");
+        sb.append("import java.util.HashMap;\n\n");
+        sb.append("/**\n * Generated helper ").append(index).append(".\n */\n");
+        sb.append("class ").append(name).append(" {\n\n");
+        sb.append("    enum Mode { IDLE, MOVE, ATTACK }\n\n");
+        sb.append("    record Cell(int x, int y) {}\n\n");
+        sb.append("    private final int seed;\n");
+        sb.append("    private final Map<Integer, List<Cell>> cells = new HashMap<>();\n\n");
+        sb.append("    ").append(name).append("(final int seed) {\n");
+        sb.append("        this.seed = seed;\n");
+        sb.append("    }\n\n");
+        final int methodCount = 3 + random.nextInt(4);
+        for (int m = 0; m < methodCount; ++m) {
+            sb.append("    // Scores step ").append(m).append(" with a \"magic\" constant.\n");
+            sb.append("    int step").append(m).append("(final int depth) {\n");
+            sb.append("        final List<Cell> list = cells.computeIfAbsent(depth, k -> new ArrayList<>());\n");
+            sb.append("        int acc = seed;\n");
+            sb.append("        for (int i = 0; i < ").append(10 + random.nextInt(90)).append("; ++i) {\n");
+            sb.append("            acc = (acc * 31 + i) % ").append(1000 + random.nextInt(9000)).append(";\n");
+            sb.append("            if ((acc & 1) == 0) {\n");
+            sb.append("                list.add(new Cell(i, acc));\n");
+            sb.append("            }\n");
+            sb.append("        }\n");
+            sb.append("        return acc + list.size();\n");
+            sb.append("    }\n\n");
+        }
+        sb.append("    long score(final int depth) {\n");
+        sb.append("        long total = 0;\n");
+        for (int m = 0; m < methodCount; ++m) {
+            sb.append("        total += step").append(m).append("(depth);\n");
+        }
+        if (next != null) {
+            sb.append("        total += depth > 0 ? new ").append(next).append("(seed).score(depth - 1) : 0;\n");
+        }
+        sb.append("        return total;\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static String tableClass(final String name, final Random random) {
+        final StringBuilder sb = new StringBuilder(TABLE_ROWS * 64);
+        sb.append("class ").append(name).append(" {\n\n");
+        sb.append("    ").append(name).append("(final int seed) {}\n\n");
+        sb.append("    long score(final int depth) {\n");
+        sb.append("        return TABLE[depth % TABLE.length][0];\n");
+        sb.append("    }\n\n");
+        sb.append("    // Precomputed. Do not edit.\n");
+        sb.append("    static final int[][] TABLE = {\n");
+        for (int row = 0; row < TABLE_ROWS; ++row) {
+            sb.append("        { ");
+            for (int col = 0; col < 8; ++col) {
+                if (col > 0) {
+                    sb.append(", ");
+                }
+                sb.append(random.nextInt(100_000));
+            }
+            sb.append(" },\n");
+        }
+        sb.append("    };\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+}
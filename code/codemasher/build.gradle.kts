@@ -15,7 +15,6 @@ repositories {
 dependencies {
     implementation("info.picocli:picocli:4.6.3")
     implementation("com.glitchybyte.glib:glib:1.4.0")
-    implementation("org.mdkt.compiler:InMemoryJavaCompiler:1.3.0")
     implementation("com.glitchybyte.gspring:gspring:1.1.1")
 }
 
@@ -26,4 +25,19 @@ version = "3.1.0"
 application {
     // Set app entry point.
     mainClass.set("com.glitchybyte.codemasher.App")
+    // Virtual threads are a preview API in Java 19. The lite server runs requests on them.
+    applicationDefaultJvmArgs = listOf("--enable-preview")
+}
+
+tasks.withType<JavaCompile>().configureEach {
+    options.release.set(19)
+    options.compilerArgs.add("--enable-preview")
+}
+
+tasks.withType<Test>().configureEach {
+    jvmArgs("--enable-preview")
+}
+
+tasks.withType<JavaExec>().configureEach {
+    jvmArgs("--enable-preview")
 }
@@ -3,16 +3,26 @@
 
 package com.glitchybyte.codemasher;
 
+import com.glitchybyte.codemasher.jfr.FlightRecording;
+import com.glitchybyte.codemasher.masher.BuildCache;
+import com.glitchybyte.codemasher.masher.BuildMetrics;
+import com.glitchybyte.codemasher.masher.BuildPublisher;
+import com.glitchybyte.codemasher.masher.JavaFileCache;
 import com.glitchybyte.codemasher.masher.Masher;
+import com.glitchybyte.codemasher.server.LiteServer;
 import com.glitchybyte.codemasher.server.Server;
 import com.glitchybyte.glib.GShutdownMonitor;
+import com.glitchybyte.glib.GStrings;
 import com.glitchybyte.glib.console.GConsole;
-import com.glitchybyte.glib.wrapped.GWrappedString;
+import com.glitchybyte.glib.log.GLog;
 import picocli.CommandLine;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -67,18 +77,84 @@ public final class App implements Callable<Integer> {
             description = "Port to serve the mashed code. Default is @|bold ${DEFAULT-VALUE}|@.")
     private int serverPort;
 
+    @CommandLine.Option(names = { "--hash" }, defaultValue = "false",
+            description = "If it should hash file contents to avoid re-parsing touched but unmodified files. Default is @|bold ${DEFAULT-VALUE}|@.")
+    private boolean isHashingContent;
+
+    @CommandLine.Option(names = { "--debounce-ms" }, paramLabel = "MILLIS", defaultValue = "100",
+            description = "Quiet period to collapse bursts of file changes into one rebuild. Default is @|bold ${DEFAULT-VALUE}|@.")
+    private long debounceMillis;
+
+    @CommandLine.Option(names = { "--server" }, paramLabel = "SERVER", defaultValue = "spring",
+            description = "Server to use: @|bold spring|@ or @|bold lite|@. Default is @|bold ${DEFAULT-VALUE}|@.")
+    private String serverName;
+
+    @CommandLine.Option(names = { "--cache-dir" }, paramLabel = "CACHE_DIR",
+            description = "Directory to keep the last good build in, to serve it right away on restart.")
+    private Path cacheDirectory;
+
+    @CommandLine.Option(names = { "--shake" }, defaultValue = "false",
+            description = "If it should leave out classes not reachable from the main class. Default is @|bold ${DEFAULT-VALUE}|@.")
+    private boolean isTreeShaking;
+
+    @CommandLine.Option(names = { "--minify" }, defaultValue = "false",
+            description = "If it should strip comments and whitespace from the mashed code. Default is @|bold ${DEFAULT-VALUE}|@.")
+    private boolean isMinifying;
+
+    @CommandLine.Option(names = { "--stable-stamp" }, defaultValue = "false",
+            description = "If the update stamp should come from the content instead of the time, so unchanged code is served unchanged. Default is @|bold ${DEFAULT-VALUE}|@.")
+    private boolean isStableStamp;
+
+    @CommandLine.Option(names = { "--jfr" }, paramLabel = "JFR_FILE",
+            description = "Keeps a flight recording of the last minutes and writes it to JFR_FILE on exit.")
+    private Path flightRecordingPath;
+
     private final GShutdownMonitor shutdownMonitor = GShutdownMonitor.createShutdownMonitor();
-    private final GWrappedString coalescedClass = new GWrappedString();
 
     @Override
     public Integer call() {
         validate();
-        Server.start(bindServerToLocalhostOnly, serverPort, mainJavaFilename, coalescedClass);
-        final ExecutorService pool = Executors.newSingleThreadExecutor();
+        if (flightRecordingPath != null) {
+            try {
+                FlightRecording.start(flightRecordingPath);
+            } catch (final IOException | RuntimeException e) {
+                throw new CommandLine.ParameterException(spec.commandLine(),
+                        GStrings.format("Can't record to JFR_FILE: %s", e.getMessage()));
+            }
+        }
+        final BuildPublisher publisher = new BuildPublisher(mainJavaFilename);
+        final BuildMetrics metrics = new BuildMetrics();
+        final ExecutorService pool = Executors.newFixedThreadPool(2);
         final MiniDisplay miniDisplay = new MiniDisplay(bindServerToLocalhostOnly, serverPort);
-        pool.execute(new Masher(watchedPath, mainJavaFilename, coalescedClass, miniDisplay));
+        miniDisplay.setServerStarting(serverName);
+        final JavaFileCache javaFileCache = new JavaFileCache(isHashingContent);
+        final BuildCache buildCache = cacheDirectory == null ? null :
+                new BuildCache(cacheDirectory, watchedPath, mainJavaFilename);
+        // The first build doesn't need the server. Mash while it boots; it serves whatever is latest once up.
+        pool.execute(new Masher(watchedPath, mainJavaFilename, publisher, miniDisplay, javaFileCache, debounceMillis,
+                buildCache, isTreeShaking, isMinifying, isStableStamp, metrics));
+        final CompletableFuture<LiteServer> serverStartup = CompletableFuture.supplyAsync(() -> {
+            final long start = System.nanoTime();
+            final LiteServer liteServer = startServer(publisher, metrics);
+            miniDisplay.setServerStartup(serverName, liteServer == null ? null : liteServer.getThreadsName(),
+                    System.nanoTime() - start);
+            miniDisplay.print();
+            return liteServer;
+        }, pool);
+        serverStartup.exceptionally(e -> {
+            GLog.severe(e);
+            shutdownMonitor.shutdown();
+            return null;
+        });
         try {
             shutdownMonitor.hold();
+            miniDisplay.stop();
+            if (serverStartup.isDone() && !serverStartup.isCompletedExceptionally()) {
+                final LiteServer liteServer = serverStartup.join();
+                if (liteServer != null) {
+                    liteServer.stop();
+                }
+            }
             pool.shutdownNow();
             if (pool.awaitTermination(2, TimeUnit.SECONDS)) {
                 GConsole.println("%nGood luck!");
@@ -90,6 +166,25 @@ public final class App implements Callable<Integer> {
         return 0;
     }
 
+    /**
+     * Starts the selected server. Returns when it is ready to serve.
+     *
+     * @param publisher Publisher of the builds to serve.
+     * @param metrics Build metrics to serve.
+     * @return The lite server, or null if the Spring server was started.
+     */
+    private LiteServer startServer(final BuildPublisher publisher, final BuildMetrics metrics) {
+        if (serverName.equals("lite")) {
+            try {
+                return LiteServer.start(bindServerToLocalhostOnly, serverPort, publisher, metrics);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        Server.start(bindServerToLocalhostOnly, serverPort, publisher, metrics);
+        return null;
+    }
+
     private void validate() {
         // Watched path must be an existing directory.
         if (!Files.isDirectory(watchedPath)) {
@@ -107,5 +202,21 @@ public final class App implements Callable<Integer> {
         if (!Files.isRegularFile(watchedPath.resolve(mainJavaFilename))) {
             throw new CommandLine.ParameterException(spec.commandLine(), "MAIN_JAVA_FILENAME must exist in WATCHED_DIR.");
         }
+        // Debounce can't be negative.
+        if (debounceMillis < 0) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "MILLIS can't be negative.");
+        }
+        // Cache directory, if given, can't be a file.
+        if ((cacheDirectory != null) && Files.exists(cacheDirectory) && !Files.isDirectory(cacheDirectory)) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "CACHE_DIR must be a directory.");
+        }
+        // Flight recording, if given, can't go to a directory.
+        if ((flightRecordingPath != null) && Files.isDirectory(flightRecordingPath)) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "JFR_FILE can't be a directory.");
+        }
+        // Server must be a known one.
+        if (!serverName.equals("spring") && !serverName.equals("lite")) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "SERVER must be spring or lite.");
+        }
     }
 }
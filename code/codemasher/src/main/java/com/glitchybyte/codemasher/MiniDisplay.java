@@ -3,6 +3,9 @@
 
 package com.glitchybyte.codemasher;
 
+import com.glitchybyte.codemasher.masher.BuildMetrics;
+import com.glitchybyte.codemasher.masher.Coalescer;
+import com.glitchybyte.codemasher.masher.CompileService;
 import com.glitchybyte.codemasher.masher.JavaFile;
 import com.glitchybyte.glib.GNetwork;
 import com.glitchybyte.glib.GStrings;
@@ -12,95 +15,251 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public final class MiniDisplay {
 
     private static final List<String> EMPTY_WATCHED_DIRECTORY =
             List.of(GConsole.coloredText("Nothing", GConsole.COLOR_BRIGHT_YELLOW));
 
-    private int linesPrinted = 0;
+    /**
+     * Shortest time between frames.
+     */
+    private static final long FRAME_NANOS = TimeUnit.SECONDS.toNanos(1) / 20;
+
+    /**
+     * Seconds between looking up the host addresses again. Enumerating network interfaces is slow.
+     */
+    private static final long NETWORK_REFRESH_SECONDS = 10;
+
     private final boolean isServingOnLocalhostOnly;
     private final int serverPort;
+    private final ScheduledExecutorService renderer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "mini-display");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private boolean isFrameScheduled = false;
+    private long lastFrameNanos = System.nanoTime() - FRAME_NANOS;
+    private List<String> drawnLines = List.of();
+    private String networkString;
+    private String serverString = "";
     private String watchedDirectory = "";
     private List<String> javaFilesString = EMPTY_WATCHED_DIRECTORY;
+    private String cacheString = "";
+    private String shakeString = "";
+    private String duplicatesString = "";
+    private String importString = "";
+    private String sizeString = "";
+    private String metricsString = "";
     private String compilationString = "";
 
+    /**
+     * Creates the display. Nothing is drawn until {@link #print()} is called.
+     *
+     * @param isServingOnLocalhostOnly True if the server binds to the loopback address only.
+     * @param serverPort Server port.
+     */
     public MiniDisplay(final boolean isServingOnLocalhostOnly, final int serverPort) {
         this.isServingOnLocalhostOnly = isServingOnLocalhostOnly;
         this.serverPort = serverPort;
+        networkString = getNetworkString(null);
+        renderer.scheduleWithFixedDelay(this::refreshNetwork, 0, NETWORK_REFRESH_SECONDS, TimeUnit.SECONDS);
     }
 
-    public void clear() {
-        GConsole.print(GConsole.cursorUp(linesPrinted));
-        for (int i = 0; i < linesPrinted; ++i) {
-            GConsole.println(GConsole.clearCurrentLine());
+    /**
+     * Asks for the display to be drawn with the latest state. Returns right away.
+     * <p>
+     * Drawing happens on the display thread, at most once per frame, so bursts of updates collapse into one draw.
+     */
+    public synchronized void print() {
+        if (isFrameScheduled || renderer.isShutdown()) {
+            return;
         }
-        GConsole.print(GConsole.cursorUp(linesPrinted));
-        linesPrinted = 0;
-        GConsole.flush();
+        isFrameScheduled = true;
+        final long delay = Math.max(0, lastFrameNanos + FRAME_NANOS - System.nanoTime());
+        renderer.schedule(this::render, delay, TimeUnit.NANOSECONDS);
     }
 
-    public void print() {
-        clear();
-        GConsole.println(getNetworkString());
-        GConsole.println(watchedDirectory);
-        GConsole.print("Files:" + " ".repeat(40 - 6));
-        GConsole.println(javaFilesString.get(0));
-        int index = 1;
-        while (index < javaFilesString.size()) {
-            GConsole.print(javaFilesString.get(index));
-            ++index;
-            if (((index % 2) != 0) || (index == javaFilesString.size())) {
-                GConsole.println("");
+    /**
+     * Draws the latest state one last time and stops the display thread.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (renderer.isShutdown()) {
+                return;
             }
+            renderer.execute(this::render);
+            renderer.shutdown();
+        }
+        try {
+            renderer.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void render() {
+        final List<String> lines;
+        synchronized (this) {
+            isFrameScheduled = false;
+            lastFrameNanos = System.nanoTime();
+            lines = getLines();
+        }
+        draw(lines);
+    }
+
+    private synchronized List<String> getLines() {
+        final List<String> lines = new ArrayList<>(16 + (javaFilesString.size() / 2));
+        lines.add(networkString);
+        lines.add(serverString);
+        lines.add(watchedDirectory);
+        lines.add("Files:" + " ".repeat(40 - 6) + javaFilesString.get(0));
+        for (int index = 1; index < javaFilesString.size(); index += 2) {
+            lines.add((index + 1) < javaFilesString.size() ?
+                    javaFilesString.get(index) + javaFilesString.get(index + 1) :
+                    javaFilesString.get(index));
+        }
+        lines.add(cacheString);
+        if (!shakeString.isEmpty()) {
+            lines.add(shakeString);
+        }
+        lines.add(importString);
+        if (!duplicatesString.isEmpty()) {
+            lines.add(duplicatesString);
+        }
+        lines.add(compilationString);
+        lines.add(sizeString);
+        lines.add(metricsString);
+        lines.add(GStrings.format("Use %s to exit.", GConsole.coloredText("Ctrl + C", GConsole.COLOR_BRIGHT_WHITE)));
+        return lines;
+    }
+
+    /**
+     * Draws the given lines over the ones drawn before, rewriting only the lines that changed.
+     * <p>
+     * Only called from the display thread.
+     *
+     * @param lines Lines to draw.
+     */
+    private void draw(final List<String> lines) {
+        if (lines.equals(drawnLines)) {
+            return;
         }
-        GConsole.println(compilationString);
-        GConsole.println("Use %s to exit.", GConsole.coloredText("Ctrl + C", GConsole.COLOR_BRIGHT_WHITE));
-        linesPrinted = 1 + // Network.
-                1 + // Watched dir.
-                ((javaFilesString.size() + 2) / 2) + // Java files.
-                1 + // Compilation.
-                1; // Exit.
+        final String newLine = System.lineSeparator();
+        final StringBuilder sb = new StringBuilder(1024);
+        if (!drawnLines.isEmpty()) {
+            sb.append(GConsole.cursorUp(drawnLines.size()));
+        }
+        final int lineCount = Math.max(lines.size(), drawnLines.size());
+        for (int i = 0; i < lineCount; ++i) {
+            if ((i < lines.size()) && (i < drawnLines.size()) && lines.get(i).equals(drawnLines.get(i))) {
+                // Unchanged. Just step over it.
+                sb.append(newLine);
+                continue;
+            }
+            sb.append(GConsole.clearCurrentLine());
+            if (i < lines.size()) {
+                sb.append(lines.get(i));
+            }
+            sb.append(newLine);
+        }
+        if (drawnLines.size() > lines.size()) {
+            // Leave the cursor right after the last line drawn.
+            sb.append(GConsole.cursorUp(drawnLines.size() - lines.size()));
+        }
+        GConsole.print(sb.toString());
         GConsole.flush();
+        drawnLines = lines;
+    }
+
+    private void refreshNetwork() {
+        final String refreshed = getNetworkString(GNetwork.getHostIPv4Addresses());
+        synchronized (this) {
+            if (!refreshed.equals(networkString)) {
+                networkString = refreshed;
+                if (!drawnLines.isEmpty() || isFrameScheduled) {
+                    print();
+                }
+            }
+        }
     }
 
-    private String getNetworkString() {
+    /**
+     * Returns the network line.
+     *
+     * @param addresses Host addresses. Null if not looked up yet.
+     * @return The network line.
+     */
+    private String getNetworkString(final Set<String> addresses) {
         final String portString = Integer.toString(serverPort);
-        final Set<String> addresses = GNetwork.getHostIPv4Addresses();
-        final Set<String> servingAddresses = isServingOnLocalhostOnly ?
-                Set.of(addresses.contains(GNetwork.LOCALHOST) ? GNetwork.LOCALHOST : "<NONE>") :
-                addresses;
+        final String addressesString;
+        if (addresses == null) {
+            addressesString = "...";
+        } else {
+            final Set<String> servingAddresses = isServingOnLocalhostOnly ?
+                    Set.of(addresses.contains(GNetwork.LOCALHOST) ? GNetwork.LOCALHOST : "<NONE>") :
+                    addresses;
+            addressesString = GStrings.fromCollection(servingAddresses);
+        }
         final int addressesLength = 80 - 9 - 2 - portString.length();
         return GStrings.format("Network: %s :%s",
-                GConsole.coloredText(getTruncatedString(GStrings.fromCollection(servingAddresses), addressesLength), GConsole.COLOR_BRIGHT_WHITE),
+                GConsole.coloredText(getTruncatedString(addressesString, addressesLength), GConsole.COLOR_BRIGHT_WHITE),
                 GConsole.coloredText(portString, GConsole.COLOR_BRIGHT_WHITE)
         );
     }
 
-    public void setWatchedDirectory(final Path watchedPath) {
+    public synchronized void setServerStarting(final String serverName) {
+        serverString = GStrings.format("Server: %s starting...",
+                GConsole.coloredText(serverName, GConsole.COLOR_BRIGHT_WHITE)
+        );
+    }
+
+    public synchronized void setServerStartup(final String serverName, final String threadsName, final long startupNanos) {
+        serverString = GStrings.format("Server: %s started in %s ms%s",
+                GConsole.coloredText(serverName, GConsole.COLOR_BRIGHT_WHITE),
+                GConsole.coloredText(GStrings.fromLong(TimeUnit.NANOSECONDS.toMillis(startupNanos)), GConsole.COLOR_BRIGHT_WHITE),
+                threadsName == null ? "" : " on " + GConsole.coloredText(threadsName, GConsole.COLOR_BRIGHT_WHITE)
+        );
+    }
+
+    public synchronized void setWatchedDirectory(final Path watchedPath) {
         watchedDirectory = GStrings.format("Watching: %s", GConsole.coloredText(
                 getTruncatedString(watchedPath.toString(), 80 - 10),
                 GConsole.COLOR_BRIGHT_WHITE)
         );
     }
 
-    public void setInputFiles(final String mainJavaFilename, final List<JavaFile> javaFiles) {
-        if (javaFiles.isEmpty()) {
+    public synchronized void setInputFiles(final Path mainJavaPath, final List<JavaFile> javaFiles,
+            final List<Path> unreadablePaths) {
+        if (javaFiles.isEmpty() && unreadablePaths.isEmpty()) {
             this.javaFilesString = EMPTY_WATCHED_DIRECTORY;
             return;
         }
-        javaFilesString = new ArrayList<>(javaFiles.size());
+        javaFilesString = new ArrayList<>(javaFiles.size() + unreadablePaths.size());
         final JavaFile mainJavaFile = javaFiles.stream()
-                .filter(javaFile -> javaFile.name.equals(mainJavaFilename))
+                .filter(javaFile -> javaFile.path.equals(mainJavaPath))
                 .findFirst()
                 .orElse(null);
-        javaFilesString.add(mainJavaFile == null ? getMissingJavaFileString(mainJavaFilename) : getJavaFileString(mainJavaFile));
+        javaFilesString.add(mainJavaFile == null ?
+                getMissingJavaFileString(mainJavaPath.getFileName().toString()) :
+                getJavaFileString(mainJavaFile));
         javaFiles.stream()
-                .filter(javaFile -> !javaFile.name.equals(mainJavaFilename))
+                .filter(javaFile -> javaFile != mainJavaFile)
                 .sorted(Comparator.comparing(s -> s.name))
                 .map(this::getJavaFileString)
                 .forEach(javaFilesString::add);
+        // Files that couldn't be read are shown like a missing main file.
+        unreadablePaths.stream()
+                .filter(path -> !path.equals(mainJavaPath))
+                .map(path -> path.getFileName().toString())
+                .sorted()
+                .map(this::getMissingJavaFileString)
+                .forEach(javaFilesString::add);
     }
 
     private String getJavaFileString(final JavaFile javaFile) {
@@ -133,13 +292,119 @@ public final class MiniDisplay {
         return line.substring(0, cutIndex) + "..." + line.substring(cutIndex + removeCount);
     }
 
-    public void setCompilationResult(final String classCode, final boolean success) {
+    public synchronized void setCacheResult(final long hitCount, final long missCount) {
+        cacheString = GStrings.format("Cache: %s hits, %s parsed",
+                GConsole.coloredText(GStrings.fromLong(hitCount), GConsole.COLOR_BRIGHT_WHITE),
+                GConsole.coloredText(GStrings.fromLong(missCount), GConsole.COLOR_BRIGHT_WHITE)
+        );
+    }
+
+    public synchronized void setShakeResult(final List<String> droppedTypes, final int droppedCharCount) {
+        final String prefix = GStrings.format("Shaken: %s types dropped, %s chars saved",
+                GConsole.coloredText(GStrings.fromInt(droppedTypes.size()), GConsole.COLOR_BRIGHT_WHITE),
+                GConsole.coloredText(GStrings.fromInt(droppedCharCount), GConsole.COLOR_BRIGHT_WHITE)
+        );
+        if (droppedTypes.isEmpty()) {
+            shakeString = prefix;
+            return;
+        }
+        // Visible length of the prefix, without color codes.
+        final int prefixLength = 36 + GStrings.fromInt(droppedTypes.size()).length() +
+                GStrings.fromInt(droppedCharCount).length();
+        shakeString = prefix + ": " + GConsole.coloredText(
+                getTruncatedString(String.join(", ", droppedTypes), Math.max(3, 80 - prefixLength - 2)),
+                GConsole.COLOR_BRIGHT_BLACK);
+    }
+
+    public synchronized void setImportResult(final Coalescer.ImportReport importReport) {
+        final String counts = GStrings.format("Imports: %s kept, %s pruned",
+                GConsole.coloredText(GStrings.fromInt(importReport.keptCount()), GConsole.COLOR_BRIGHT_WHITE),
+                GConsole.coloredText(GStrings.fromInt(importReport.prunedCount()), GConsole.COLOR_BRIGHT_WHITE)
+        );
+        if (importReport.collisions().isEmpty() && importReport.shadowed().isEmpty()) {
+            importString = counts;
+            return;
+        }
+        // Visible length of the counts, without color codes.
+        final int countsLength = 23 + GStrings.fromInt(importReport.keptCount()).length() +
+                GStrings.fromInt(importReport.prunedCount()).length();
+        // Collisions won't compile, so they come first. Shadowed imports are only a warning.
+        final boolean isError = !importReport.collisions().isEmpty();
+        final String problems = isError ?
+                "collisions: " + String.join("; ", importReport.collisions()) :
+                "shadowed: " + String.join("; ", importReport.shadowed());
+        importString = counts + ", " + GConsole.coloredText(
+                getTruncatedString(problems, Math.max(3, 80 - countsLength - 2)),
+                isError ? GConsole.COLOR_BRIGHT_RED : GConsole.COLOR_BRIGHT_YELLOW);
+    }
+
+    public synchronized void setDuplicateTypes(final List<String> duplicateTypes) {
+        if (duplicateTypes.isEmpty()) {
+            duplicatesString = "";
+            return;
+        }
+        duplicatesString = "Duplicates: " + GConsole.coloredText(
+                getTruncatedString(String.join("; ", duplicateTypes), 80 - 12),
+                GConsole.COLOR_BRIGHT_RED);
+    }
+
+    public synchronized void setSizeResult(final int rawCharCount, final int charCount) {
+        if (rawCharCount == charCount) {
+            sizeString = GStrings.format("Size: %s chars",
+                    GConsole.coloredText(GStrings.fromInt(charCount), GConsole.COLOR_BRIGHT_WHITE));
+            return;
+        }
+        sizeString = GStrings.format("Size: %s chars minified from %s",
+                GConsole.coloredText(GStrings.fromInt(charCount), GConsole.COLOR_BRIGHT_WHITE),
+                GConsole.coloredText(GStrings.fromInt(rawCharCount), GConsole.COLOR_BRIGHT_BLACK)
+        );
+    }
+
+    public synchronized void setBuildMetrics(final BuildMetrics metrics) {
+        final BuildMetrics.Build lastBuild = metrics.getLastBuild();
+        if (lastBuild == null) {
+            metricsString = "";
+            return;
+        }
+        final StringBuilder stages = new StringBuilder(64);
+        for (final BuildMetrics.Stage stage: BuildMetrics.Stage.values()) {
+            if (stage == BuildMetrics.Stage.TOTAL) {
+                continue;
+            }
+            if (!stages.isEmpty()) {
+                stages.append(", ");
+            }
+            stages.append(stage.name().toLowerCase(Locale.ROOT)).append(' ').append(toMillisString(lastBuild.stageNanos().get(stage)));
+        }
+        final String total = toMillisString(lastBuild.stageNanos().get(BuildMetrics.Stage.TOTAL));
+        final String p95 = toMillisString(metrics.getHistogram(BuildMetrics.Stage.TOTAL).getPercentile(95));
+        // Stages get what's left of the line, so it never wraps and breaks redrawing.
+        final int stagesMaxLength = Math.max(5, 80 - GStrings.format("Build: %s ms, p95 %s ms ()", total, p95).length());
+        metricsString = GStrings.format("Build: %s ms, p95 %s ms %s",
+                GConsole.coloredText(total, GConsole.COLOR_BRIGHT_WHITE),
+                GConsole.coloredText(p95, GConsole.COLOR_BRIGHT_WHITE),
+                GConsole.coloredText("(" + getTruncatedString(stages.toString(), stagesMaxLength) + ")",
+                        GConsole.COLOR_BRIGHT_BLACK)
+        );
+    }
+
+    private String toMillisString(final long nanos) {
+        return GStrings.fromLong(TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    public synchronized void setCompilationResult(final String classCode, final CompileService.Result compileResult) {
         final long lineCount = classCode == null ? -1 : classCode.lines().count();
-        compilationString = GStrings.format("Compilation: %s (%s)",
+        final boolean success = (compileResult != null) && compileResult.isSuccess();
+        compilationString = GStrings.format("Compilation: %s (%s)%s",
                 success ? GConsole.coloredText("SUCCESS", GConsole.COLOR_BRIGHT_GREEN) :
                         GConsole.coloredText("FAILURE", GConsole.COLOR_BRIGHT_RED),
                 lineCount < 0 ? "none" :
-                        GConsole.coloredText(GStrings.fromLong(lineCount), GConsole.COLOR_BRIGHT_BLACK)
+                        GConsole.coloredText(GStrings.fromLong(lineCount), GConsole.COLOR_BRIGHT_BLACK),
+                compileResult == null ? "" :
+                        compileResult.isReused() ? GStrings.format(" %s", GConsole.coloredText("unchanged", GConsole.COLOR_BRIGHT_BLACK)) :
+                        GStrings.format(" in %s ms", GConsole.coloredText(
+                                GStrings.fromLong(TimeUnit.NANOSECONDS.toMillis(compileResult.nanos())),
+                                GConsole.COLOR_BRIGHT_WHITE))
         );
     }
 }
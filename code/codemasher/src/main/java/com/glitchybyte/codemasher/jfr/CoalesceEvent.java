@@ -0,0 +1,34 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Java files coalesced into the single class.
+ */
+@Name("codemasher.Coalesce")
+@Label("Coalesce")
+@Category({ "CodeMasher", "Masher" })
+@Description("Java files coalesced into a single class.")
+@StackTrace(false)
+public final class CoalesceEvent extends Event {
+
+    @Label("Generation")
+    public long generation;
+
+    @Label("Files")
+    public int fileCount;
+
+    @Label("Characters")
+    @Description("Characters in the coalesced class. Zero if the main file has no code marker.")
+    public int charCount;
+
+    @Label("Dropped Types")
+    @Description("Types left out as unreachable from the main class.")
+    public int droppedTypeCount;
+
+    @Label("Minified")
+    public boolean isMinified;
+}
@@ -0,0 +1,33 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * The coalesced class compiled, or its earlier verdict reused.
+ */
+@Name("codemasher.Compile")
+@Label("Compile")
+@Category({ "CodeMasher", "Masher" })
+@Description("Coalesced class compiled.")
+@StackTrace(false)
+public final class CompileEvent extends Event {
+
+    @Label("Generation")
+    public long generation;
+
+    @Label("Class Name")
+    public String className;
+
+    @Label("Success")
+    public boolean isSuccess;
+
+    @Label("Diagnostics")
+    public int diagnosticCount;
+
+    @Label("Reused")
+    @Description("True if the same class was compiled before and javac was skipped.")
+    public boolean isReused;
+}
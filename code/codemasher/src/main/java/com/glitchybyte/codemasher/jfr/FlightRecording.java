@@ -0,0 +1,65 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+
+/**
+ * Continuous flight recording that keeps only the most recent events and is written to a file on exit.
+ * <p>
+ * Uses the JDK's low overhead "default" settings plus the CodeMasher events. While running, it can also be dumped
+ * on demand with {@code jcmd <pid> JFR.dump name=codemasher}.
+ */
+public final class FlightRecording {
+
+    /**
+     * Name of the recording, to find it with jcmd.
+     */
+    public static final String NAME = "codemasher";
+
+    /**
+     * Oldest events kept.
+     */
+    private static final Duration MAX_AGE = Duration.ofMinutes(15);
+
+    /**
+     * Disk space kept for events, in bytes.
+     */
+    private static final long MAX_SIZE = 64L * 1024 * 1024;
+
+    private FlightRecording() {
+        // Hide constructor.
+    }
+
+    /**
+     * Starts the recording.
+     *
+     * @param destination File to write the recording to on exit.
+     * @return The running recording.
+     * @throws IOException If the destination can't be written.
+     */
+    public static Recording start(final Path destination) throws IOException {
+        final Configuration configuration;
+        try {
+            configuration = Configuration.getConfiguration("default");
+        } catch (final ParseException e) {
+            throw new IOException(e);
+        }
+        final Recording recording = new Recording(configuration);
+        recording.setName(NAME);
+        recording.setToDisk(true);
+        recording.setMaxAge(MAX_AGE);
+        recording.setMaxSize(MAX_SIZE);
+        recording.setDestination(destination);
+        recording.setDumpOnExit(true);
+        recording.start();
+        return recording;
+    }
+}
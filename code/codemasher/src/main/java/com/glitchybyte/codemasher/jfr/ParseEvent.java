@@ -0,0 +1,30 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * A Java file read and parsed because it wasn't in the cache or had changed.
+ */
+@Name("codemasher.Parse")
+@Label("Parse")
+@Category({ "CodeMasher", "Masher" })
+@Description("Java file read and parsed.")
+@StackTrace(false)
+public final class ParseEvent extends Event {
+
+    @Label("Path")
+    public String path;
+
+    @Label("Lines")
+    public int lineCount;
+
+    @Label("Characters")
+    public int charCount;
+
+    @Label("Hashed")
+    @Description("True if the content was hashed to detect touched but unmodified files.")
+    public boolean isHashed;
+}
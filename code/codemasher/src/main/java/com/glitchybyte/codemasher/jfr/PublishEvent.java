@@ -0,0 +1,32 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * The end of a build, including the wait for an earlier build to finish publishing.
+ */
+@Name("codemasher.Publish")
+@Label("Publish")
+@Category({ "CodeMasher", "Masher" })
+@Description("Build results published and displayed.")
+@StackTrace(false)
+public final class PublishEvent extends Event {
+
+    @Label("Generation")
+    public long generation;
+
+    @Label("Published")
+    @Description("False if the build didn't compile, or a newer build was published first.")
+    public boolean isPublished;
+
+    @Label("Version")
+    @Description("Version of the published build. Zero if nothing was published.")
+    public long version;
+
+    @Label("Size")
+    @DataAmount
+    public long byteCount;
+}
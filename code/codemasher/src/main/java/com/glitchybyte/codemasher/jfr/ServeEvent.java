@@ -0,0 +1,32 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * A request for the single source answered.
+ */
+@Name("codemasher.Serve")
+@Label("Serve")
+@Category({ "CodeMasher", "Server" })
+@Description("Request for the single source answered.")
+@StackTrace(false)
+public final class ServeEvent extends Event {
+
+    @Label("Status")
+    public int status;
+
+    @Label("Version")
+    @Description("Version of the build served.")
+    public long version;
+
+    @Label("Encoding")
+    @Description("How the body was sent: identity, gzip, deflate, or cmpatch.")
+    public String encoding;
+
+    @Label("Size")
+    @DataAmount
+    public long byteCount;
+}
@@ -0,0 +1,28 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * A batch of source changes, from the first change seen until the debounce quiet period closed it.
+ */
+@Name("codemasher.WatchBatch")
+@Label("Watch Batch")
+@Category({ "CodeMasher", "Masher" })
+@Description("Source changes collapsed into one rebuild.")
+@StackTrace(false)
+public final class WatchBatchEvent extends Event {
+
+    @Label("Generation")
+    @Description("Source generation this batch starts.")
+    public long generation;
+
+    @Label("Changed Paths")
+    public int changedPathCount;
+
+    @Label("Overflowed")
+    @Description("True if the watch service lost events and every file is rechecked.")
+    public boolean hasOverflowed;
+}
@@ -0,0 +1,202 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.masher;
+
+import com.glitchybyte.glib.GStrings;
+import com.glitchybyte.glib.log.GLog;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * On-disk cache of the last good build, so a restart can serve it right away and skip compiling it again.
+ * <p>
+ * The build code is stored in a file named by its content hash, and a small properties file points at it. Every
+ * file is written to a temporary file first and atomically moved into place, and the pointer is moved last, so a
+ * crash leaves either the old or the new build behind, never a torn one. Anything that doesn't check out on load
+ * is ignored.
+ * <p>
+ * Builds can be saved in the background on a writer thread of its own. It is never interrupted, as an interrupted
+ * write fails, and only the latest build waiting to be saved is kept.
+ */
+public final class BuildCache implements AutoCloseable {
+
+    /**
+     * Build restored from the cache.
+     *
+     * @param code Coalesced class code.
+     * @param fingerprint Coalesced class fingerprint.
+     * @param result Compilation result of the build.
+     */
+    public record CachedBuild(String code, String fingerprint, CompileService.Result result) {}
+
+    private static final String BUILD_FILENAME = "last-build.properties";
+    private static final String CODE_PREFIX = "build-";
+    private static final String CODE_SUFFIX = ".java.txt";
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+    private final Path directory;
+    private final String watchedPath;
+    private final String mainJavaFilename;
+    private final AtomicReference<CachedBuild> pendingSave = new AtomicReference<>(null);
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "build-cache-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Creates a build cache.
+     *
+     * @param directory Cache directory. Created if needed.
+     * @param watchedPath Watched directory. A cache written for another directory is ignored.
+     * @param mainJavaFilename Main Java filename. A cache written for another main file is ignored.
+     */
+    public BuildCache(final Path directory, final Path watchedPath, final String mainJavaFilename) {
+        this.directory = directory;
+        this.watchedPath = watchedPath.toAbsolutePath().normalize().toString();
+        this.mainJavaFilename = mainJavaFilename;
+    }
+
+    /**
+     * Loads the cached build.
+     *
+     * @return The cached build, or null if there is none or it doesn't belong to this project.
+     */
+    public CachedBuild load() {
+        final Properties properties = new Properties();
+        try (final Reader reader = Files.newBufferedReader(directory.resolve(BUILD_FILENAME), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+            if (!watchedPath.equals(properties.getProperty("watched")) ||
+                    !mainJavaFilename.equals(properties.getProperty("main"))) {
+                return null;
+            }
+            final String contentHash = properties.getProperty("contentHash");
+            final String fingerprint = properties.getProperty("fingerprint");
+            if ((contentHash == null) || (fingerprint == null)) {
+                return null;
+            }
+            final byte[] bytes = Files.readAllBytes(directory.resolve(CODE_PREFIX + contentHash + CODE_SUFFIX));
+            if (!contentHash.equals(Hashes.sha256(bytes))) {
+                return null;
+            }
+            final CompileService.Result result = new CompileService.Result(true,
+                    Integer.parseInt(properties.getProperty("diagnosticCount", "0")), 0, true);
+            return new CachedBuild(new String(bytes, StandardCharsets.UTF_8), fingerprint, result);
+        } catch (final IOException | RuntimeException e) {
+            // Missing or unreadable. Start from nothing.
+            return null;
+        }
+    }
+
+    /**
+     * Saves a good build, replacing the cached one.
+     *
+     * @param code Coalesced class code.
+     * @param fingerprint Coalesced class fingerprint.
+     * @param result Compilation result of the build.
+     * @throws IOException If there is a problem writing the cache.
+     */
+    public void save(final String code, final String fingerprint, final CompileService.Result result) throws IOException {
+        Files.createDirectories(directory);
+        final byte[] bytes = code.getBytes(StandardCharsets.UTF_8);
+        final String contentHash = Hashes.sha256(bytes);
+        final String codeFilename = CODE_PREFIX + contentHash + CODE_SUFFIX;
+        writeAtomically(codeFilename, bytes);
+        final Properties properties = new Properties();
+        properties.setProperty("watched", watchedPath);
+        properties.setProperty("main", mainJavaFilename);
+        properties.setProperty("contentHash", contentHash);
+        properties.setProperty("fingerprint", fingerprint);
+        properties.setProperty("diagnosticCount", Integer.toString(result.diagnosticCount()));
+        final Path temp = Files.createTempFile(directory, BUILD_FILENAME, ".tmp");
+        try {
+            try (final Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                properties.store(writer, "CodeMasher last good build");
+            }
+            moveAtomically(temp, directory.resolve(BUILD_FILENAME));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        deleteOtherBuilds(codeFilename);
+    }
+
+    /**
+     * Saves a good build in the background, replacing the cached one. If a build is still waiting to be saved, it is
+     * replaced by this one.
+     *
+     * @param code Coalesced class code.
+     * @param fingerprint Coalesced class fingerprint.
+     * @param result Compilation result of the build.
+     */
+    public void saveLater(final String code, final String fingerprint, final CompileService.Result result) {
+        if (pendingSave.getAndSet(new CachedBuild(code, fingerprint, result)) == null) {
+            // Nothing was waiting, so no save is queued to pick this one up.
+            writer.execute(this::savePending);
+        }
+    }
+
+    private void savePending() {
+        final CachedBuild build = pendingSave.getAndSet(null);
+        if (build == null) {
+            return;
+        }
+        try {
+            save(build.code(), build.fingerprint(), build.result());
+        } catch (final IOException e) {
+            GLog.severe(GStrings.format("Can't save build cache: %s", e));
+        }
+    }
+
+    /**
+     * Waits a moment for a background save to finish, and stops the writer.
+     */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeAtomically(final String filename, final byte[] bytes) throws IOException {
+        final Path temp = Files.createTempFile(directory, filename, ".tmp");
+        try {
+            Files.write(temp, bytes);
+            moveAtomically(temp, directory.resolve(filename));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void moveAtomically(final Path source, final Path target) throws IOException {
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Deletes build code files no longer pointed at, including temporary files left by a crash.
+     *
+     * @param keptFilename Build code file to keep.
+     */
+    private void deleteOtherBuilds(final String keptFilename) throws IOException {
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (final Path path: stream) {
+                final String filename = path.getFileName().toString();
+                if ((filename.startsWith(CODE_PREFIX) && !filename.equals(keptFilename)) || filename.endsWith(".tmp")) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.masher;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings and counts of completed builds.
+ * <p>
+ * Stage timings go into lock-free histograms. Counts are kept both for the last build and as running totals.
+ * Builds that were superseded before publishing are not recorded.
+ */
+public final class BuildMetrics {
+
+    /**
+     * Build stages.
+     */
+    public enum Stage {
+        SCAN,
+        PARSE,
+        COALESCE,
+        COMPILE,
+        PUBLISH,
+        /**
+         * Whole build, from start to publish.
+         */
+        TOTAL
+    }
+
+    /**
+     * Timings and counts of one build.
+     *
+     * @param stageNanos Nanoseconds each stage took.
+     * @param fileCount Number of Java files.
+     * @param lineCount Number of lines in the Java files.
+     * @param charCount Number of characters in the Java files.
+     * @param outputByteCount Number of bytes of the published build. 0 if nothing was published.
+     * @param cacheHitCount Number of files served from the parse cache.
+     * @param cacheMissCount Number of files parsed.
+     */
+    public record Build(Map<Stage, Long> stageNanos, int fileCount, long lineCount, long charCount,
+            long outputByteCount, long cacheHitCount, long cacheMissCount) {}
+
+    private final Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+    private final LongAdder buildCount = new LongAdder();
+    private final LongAdder fileCount = new LongAdder();
+    private final LongAdder lineCount = new LongAdder();
+    private final LongAdder charCount = new LongAdder();
+    private final LongAdder outputByteCount = new LongAdder();
+    private final LongAdder cacheHitCount = new LongAdder();
+    private final LongAdder cacheMissCount = new LongAdder();
+    private volatile Build lastBuild = null;
+
+    /**
+     * Creates empty build metrics.
+     */
+    public BuildMetrics() {
+        for (final Stage stage: Stage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Records a completed build.
+     *
+     * @param build Build timings and counts.
+     */
+    public void record(final Build build) {
+        build.stageNanos().forEach((stage, nanos) -> histograms.get(stage).record(nanos));
+        buildCount.increment();
+        fileCount.add(build.fileCount());
+        lineCount.add(build.lineCount());
+        charCount.add(build.charCount());
+        outputByteCount.add(build.outputByteCount());
+        cacheHitCount.add(build.cacheHitCount());
+        cacheMissCount.add(build.cacheMissCount());
+        lastBuild = build;
+    }
+
+    /**
+     * Returns the histogram of a stage's timings, in nanoseconds.
+     *
+     * @param stage Stage.
+     * @return The histogram.
+     */
+    public LatencyHistogram getHistogram(final Stage stage) {
+        return histograms.get(stage);
+    }
+
+    /**
+     * Returns the last recorded build.
+     *
+     * @return The last recorded build, or null if there is none.
+     */
+    public Build getLastBuild() {
+        return lastBuild;
+    }
+
+    /**
+     * Returns the number of recorded builds.
+     *
+     * @return The number of recorded builds.
+     */
+    public long getBuildCount() {
+        return buildCount.sum();
+    }
+
+    /**
+     * Returns the total number of Java files over all recorded builds.
+     *
+     * @return The total number of Java files over all recorded builds.
+     */
+    public long getFileCount() {
+        return fileCount.sum();
+    }
+
+    /**
+     * Returns the total number of lines over all recorded builds.
+     *
+     * @return The total number of lines over all recorded builds.
+     */
+    public long getLineCount() {
+        return lineCount.sum();
+    }
+
+    /**
+     * Returns the total number of characters over all recorded builds.
+     *
+     * @return The total number of characters over all recorded builds.
+     */
+    public long getCharCount() {
+        return charCount.sum();
+    }
+
+    /**
+     * Returns the total number of published bytes over all recorded builds.
+     *
+     * @return The total number of published bytes over all recorded builds.
+     */
+    public long getOutputByteCount() {
+        return outputByteCount.sum();
+    }
+
+    /**
+     * Returns the total number of files served from the parse cache over all recorded builds.
+     *
+     * @return The total number of files served from the parse cache over all recorded builds.
+     */
+    public long getCacheHitCount() {
+        return cacheHitCount.sum();
+    }
+
+    /**
+     * Returns the total number of files parsed over all recorded builds.
+     *
+     * @return The total number of files parsed over all recorded builds.
+     */
+    public long getCacheMissCount() {
+        return cacheMissCount.sum();
+    }
+}
@@ -0,0 +1,110 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.masher;
+
+import com.glitchybyte.gspring.GSpringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Publishes builds for serving.
+ * <p>
+ * The current build is held in an atomic reference to an immutable snapshot, so readers never lock and never
+ * encode.
+ */
+public final class BuildPublisher {
+
+    /**
+     * Code served before the first successful build.
+     */
+    private static final String NO_CODE = "// No code :(\n";
+
+    private final String mainJavaFilename;
+    private final AtomicReference<BuildSnapshot> snapshot;
+    private final List<Consumer<BuildSnapshot>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates a build publisher.
+     *
+     * @param mainJavaFilename Main Java filename. Used to pick the media type.
+     */
+    public BuildPublisher(final String mainJavaFilename) {
+        this.mainJavaFilename = mainJavaFilename;
+        snapshot = new AtomicReference<>(createSnapshot(0, NO_CODE, -1));
+    }
+
+    /**
+     * Returns the current build.
+     *
+     * @return The current build.
+     */
+    public BuildSnapshot get() {
+        return snapshot.get();
+    }
+
+    /**
+     * Adds a listener to be called with every published build.
+     * <p>
+     * Listeners are called on the publishing thread, so they must not block.
+     *
+     * @param listener Listener.
+     */
+    public void addListener(final Consumer<BuildSnapshot> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener.
+     *
+     * @param listener Listener.
+     */
+    public void removeListener(final Consumer<BuildSnapshot> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Publishes a new build.
+     *
+     * @param code Coalesced class code.
+     * @return The published build.
+     */
+    public BuildSnapshot publish(final String code) {
+        return publish(code, -1);
+    }
+
+    /**
+     * Publishes a new build, possibly minified.
+     *
+     * @param code Coalesced class code.
+     * @param rawCharCount Number of characters of the code before minifying. -1 if it wasn't minified.
+     * @return The published build.
+     */
+    public BuildSnapshot publish(final String code, final int rawCharCount) {
+        final BuildSnapshot current = snapshot.get();
+        final BuildSnapshot next = createSnapshot(current.version() + 1, code, rawCharCount);
+        snapshot.set(next);
+        listeners.forEach(listener -> listener.accept(next));
+        return next;
+    }
+
+    private BuildSnapshot createSnapshot(final long version, final String code, final int rawCharCount) {
+        final byte[] bytes = code.getBytes(StandardCharsets.UTF_8);
+        final String contentHash = Hashes.sha256(bytes);
+        final String eTag = "\"" + contentHash.substring(0, 32) + "\"";
+        final long publishedMillis = System.currentTimeMillis();
+        final String lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                Instant.ofEpochMilli(publishedMillis).atZone(ZoneOffset.UTC));
+        // Same media type the code was always served with, worked out once per build rather than per request.
+        final String mediaType = GSpringUtils.getMediaType(mainJavaFilename, code).toString();
+        return new BuildSnapshot(version, bytes, rawCharCount == code.length() ? -1 : rawCharCount, contentHash, eTag,
+                mediaType, publishedMillis, lastModified);
+    }
+}
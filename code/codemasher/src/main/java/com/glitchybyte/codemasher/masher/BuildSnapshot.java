@@ -0,0 +1,42 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.masher;
+
+/**
+ * Immutable published build, ready to be served.
+ * <p>
+ * The bytes must never be modified once the snapshot is created.
+ *
+ * @param version Build version. Increases with every published build, but starts over with every run.
+ * @param bytes Coalesced class code encoded in UTF-8.
+ * @param rawCharCount Number of characters of the code before minifying. -1 if it wasn't minified.
+ * @param contentHash Hash of the bytes.
+ * @param eTag Strong entity tag for the bytes, quoted.
+ * @param mediaType Media type to serve the bytes with.
+ * @param publishedMillis Time of publishing in milliseconds since the epoch.
+ * @param lastModified Time of publishing as an HTTP date.
+ */
+public record BuildSnapshot(long version, byte[] bytes, int rawCharCount, String contentHash, String eTag,
+        String mediaType, long publishedMillis, String lastModified) {
+
+    /**
+     * Returns the length of the bytes.
+     *
+     * @return The length of the bytes.
+     */
+    public int length() {
+        return bytes.length;
+    }
+
+    /**
+     * Returns the build tag, which is the entity tag without quotes.
+     * <p>
+     * Unlike the version, it names the contents. The same bytes have the same tag across runs.
+     *
+     * @return The build tag.
+     */
+    public String tag() {
+        return eTag.substring(1, eTag.length() - 1);
+    }
+}
@@ -5,6 +5,8 @@ package com.glitchybyte.codemasher.masher;
 
 import com.glitchybyte.glib.GStrings;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
@@ -12,6 +14,35 @@ import java.util.*;
 
 public final class Coalescer {
 
+    /**
+     * Coalesced class.
+     *
+     * @param code Coalesced class code.
+     * @param fingerprint Content fingerprint. It leaves out the update stamp and whitespace differences, and
+     *                    includes the minifying and tree shaking modes, so two coalesced classes with the same
+     *                    fingerprint compile the same.
+     * @param droppedTypes Names of the top-level types left out by tree shaking, in order.
+     * @param droppedCharCount Number of characters of code left out by tree shaking.
+     * @param rawCharCount Number of characters of the code before minifying. Same as the code's if not minified.
+     * @param imports What happened to the imports.
+     * @param duplicateTypes Simple names declared by more than one coalesced file, each with where. Nested, they
+     *                       would clash, so a class with any won't compile.
+     */
+    public record Result(String code, String fingerprint, List<String> droppedTypes, int droppedCharCount,
+            int rawCharCount, ImportReport imports, List<String> duplicateTypes) {}
+
+    /**
+     * What happened to the imports of the coalesced files.
+     *
+     * @param keptCount Number of imports written.
+     * @param prunedCount Number of distinct imports left out because nothing used them.
+     * @param collisions Simple names imported from more than one place, each with what clashes. These won't
+     *                   compile.
+     * @param shadowed Simple names imported and also declared in the sources, each with its import. This compiles,
+     *                 as the nested type shadows the import, but the import is then never what the name means.
+     */
+    public record ImportReport(int keptCount, int prunedCount, List<String> collisions, List<String> shadowed) {}
+
     /**
      * Magic comment to be replaced by a timestamp.
      */
@@ -38,28 +69,53 @@ public final class Coalescer {
         return timestampFormatter.format(Instant.now());
     }
 
+    /**
+     * Creates a pool of update stamp graphics, to be shared by coalescers.
+     *
+     * @return A started graphic pool. Close it when done.
+     */
+    public static GraphicPool createStampGraphicPool() {
+        return new GraphicPool(40, 5, 10, 8);
+    }
+
     private final List<JavaFile> javaFiles;
-    private final String mainClassName;
+    private final Path mainJavaPath;
+    private final boolean isTreeShaking;
+    private final boolean isMinifying;
+    private final GraphicPool graphicPool;
+    private final boolean isStableStamp;
 
     /**
      * Creates the coalescer.
      *
      * @param javaFiles Java classes to coalesce.
-     * @param mainClassName Main class name.
+     * @param mainJavaPath Path of the main Java file. Other files with the same name are not the main class.
+     * @param isTreeShaking True to leave out files with no types reachable from the main class.
+     * @param isMinifying True to minify the coalesced class, except for the update stamp.
+     * @param graphicPool Pool of update stamp graphics.
+     * @param isStableStamp True to make the update stamp from the content fingerprint instead of the time, so the
+     *                      same content always coalesces to the same class.
      */
-    public Coalescer(final List<JavaFile> javaFiles, final String mainClassName) {
+    public Coalescer(final List<JavaFile> javaFiles, final Path mainJavaPath, final boolean isTreeShaking,
+            final boolean isMinifying, final GraphicPool graphicPool, final boolean isStableStamp) {
         this.javaFiles = javaFiles;
-        this.mainClassName = mainClassName;
+        this.mainJavaPath = mainJavaPath;
+        this.isTreeShaking = isTreeShaking;
+        this.isMinifying = isMinifying;
+        this.graphicPool = graphicPool;
+        this.isStableStamp = isStableStamp;
     }
 
-    public String coalesce() {
-        final StringBuilder sb = new StringBuilder();
-        writeImports(sb);
-        final String mainClassFilename = mainClassName + ".java";
+    /**
+     * Coalesces all Java files into the main class.
+     *
+     * @return The coalesced class, or null if the main class is missing.
+     */
+    public Result coalesce() {
         JavaFile mainClass = null;
-        final List<JavaFile> otherClasses = new ArrayList<>(javaFiles.size() - 1);
+        final List<JavaFile> otherClasses = new ArrayList<>(javaFiles.size());
         for (final JavaFile javaFile: javaFiles) {
-            if (javaFile.name.equals(mainClassFilename)) {
+            if (javaFile.path.equals(mainJavaPath)) {
                 mainClass = javaFile;
             } else {
                 otherClasses.add(javaFile);
@@ -68,63 +124,358 @@ public final class Coalescer {
         if (mainClass == null) {
             return null;
         }
-        writeMainClass(sb, mainClass, otherClasses);
-        return sb.toString();
+        final List<JavaFile> keptClasses = isTreeShaking ? findReachable(mainClass, otherClasses) : otherClasses;
+        final List<String> droppedTypes = new ArrayList<>();
+        int droppedCharCount = 0;
+        if (keptClasses.size() < otherClasses.size()) {
+            final Set<JavaFile> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+            kept.addAll(keptClasses);
+            for (final JavaFile javaFile: otherClasses) {
+                if (!kept.contains(javaFile)) {
+                    javaFile.getTypes().forEach(type -> droppedTypes.add(type.name()));
+                    droppedCharCount += javaFile.getCharCount();
+                }
+            }
+        }
+        int capacity = mainClass.getCharCount();
+        for (final JavaFile javaFile: keptClasses) {
+            // Room for the contents plus re-indenting.
+            capacity += javaFile.getCharCount() + (javaFile.getContentLineCount() * 4);
+        }
+        final StringBuilder sb = new StringBuilder(capacity);
+        final List<JavaFile> coalescedFiles = new ArrayList<>(keptClasses.size() + 1);
+        coalescedFiles.add(mainClass);
+        coalescedFiles.addAll(keptClasses);
+        final List<String> duplicateTypes = findDuplicateTypes(coalescedFiles);
+        final ImportReport imports = writeImports(sb, coalescedFiles);
+        final int stampStart = writeMainClass(sb, mainClass, keptClasses);
+        // The fingerprint is of the raw class, but it names the modes too, so a minified class never reuses the
+        // compilation verdict of a raw one, or the other way around.
+        final String fingerprint = fingerprint(sb);
+        int stampEnd = -1;
+        if (stampStart >= 0) {
+            final String stamp = getUpdateStamp(fingerprint);
+            sb.insert(stampStart, stamp);
+            stampEnd = stampStart + stamp.length();
+        }
+        final String code = isMinifying ?
+                Minifier.minify(sb.toString(), stampStart, stampEnd) :
+                sb.toString();
+        return new Result(code, fingerprint, droppedTypes, droppedCharCount, sb.length(), imports, duplicateTypes);
     }
 
-    private void writeImports(final StringBuilder sb) {
-        final Set<String> imports = new HashSet<>();
-        javaFiles.forEach(javaFile -> imports.addAll(javaFile.getImports()));
-        for (final Iterator<String> iterator = imports.iterator(); iterator.hasNext();) {
-            final String line = iterator.next();
-            if (line.endsWith(".*;")) {
-                continue;
+    /**
+     * Finds the top-level types declared by more than one file. Packages are flattened away when coalescing, so
+     * {@code a.Node} and {@code b.Node} would both become the nested class {@code Node}.
+     *
+     * @param coalescedFiles Files being coalesced.
+     * @return Each duplicated simple name with its qualified names and files, in declaration order.
+     */
+    private List<String> findDuplicateTypes(final List<JavaFile> coalescedFiles) {
+        final Map<String, List<String>> qualifiedNames = new LinkedHashMap<>();
+        for (final JavaFile javaFile: coalescedFiles) {
+            final String packagePrefix = javaFile.getPackageName().isEmpty() ? "" : javaFile.getPackageName() + ".";
+            for (final JavaFile.TypeDeclaration type: javaFile.getTypes()) {
+                qualifiedNames.computeIfAbsent(type.name(), name -> new ArrayList<>(1))
+                        .add(packagePrefix + type.name() + " (" + getRelativePath(javaFile) + ")");
             }
-            final int dotPos = line.lastIndexOf('.');
-            final String wildcardImport = line.substring(0, dotPos + 1) + "*;";
-            if (imports.contains(wildcardImport)) {
-                iterator.remove();
+        }
+        final List<String> duplicateTypes = new ArrayList<>();
+        qualifiedNames.forEach((name, declarations) -> {
+            if (declarations.size() > 1) {
+                duplicateTypes.add(name + ": " + String.join(", ", declarations));
+            }
+        });
+        return duplicateTypes;
+    }
+
+    /**
+     * Returns the path of a Java file relative to the main file's directory, which is the watched directory.
+     *
+     * @param javaFile Java file.
+     * @return The relative path, or the full path if the file is elsewhere.
+     */
+    private String getRelativePath(final JavaFile javaFile) {
+        final Path root = mainJavaPath.getParent();
+        return (root == null) || !javaFile.path.startsWith(root) ?
+                javaFile.path.toString() :
+                root.relativize(javaFile.path).toString();
+    }
+
+    /**
+     * Finds the files that declare a type reachable from the main class.
+     * <p>
+     * A type is reachable if its simple name appears in the code of a reachable file. That's a conservative
+     * over-approximation: it can keep an unused type whose name is also used as, say, a variable, but it never
+     * drops a used one. Files are kept or dropped whole.
+     *
+     * @param mainClass Main class.
+     * @param otherClasses All other classes.
+     * @return The reachable classes, in their original order.
+     */
+    private List<JavaFile> findReachable(final JavaFile mainClass, final List<JavaFile> otherClasses) {
+        final Map<String, List<JavaFile>> filesByTypeName = new HashMap<>();
+        for (final JavaFile javaFile: otherClasses) {
+            for (final JavaFile.TypeDeclaration type: javaFile.getTypes()) {
+                filesByTypeName.computeIfAbsent(type.name(), name -> new ArrayList<>(1)).add(javaFile);
+            }
+        }
+        final Set<JavaFile> reached = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Deque<JavaFile> pending = new ArrayDeque<>();
+        pending.add(mainClass);
+        while (!pending.isEmpty()) {
+            final JavaFile javaFile = pending.poll();
+            for (final String identifier: javaFile.getIdentifiers()) {
+                final List<JavaFile> declaringFiles = filesByTypeName.get(identifier);
+                if (declaringFiles == null) {
+                    continue;
+                }
+                for (final JavaFile declaringFile: declaringFiles) {
+                    if (reached.add(declaringFile)) {
+                        pending.add(declaringFile);
+                    }
+                }
             }
         }
+        return otherClasses.stream()
+                .filter(reached::contains)
+                .toList();
+    }
+
+    /**
+     * Computes the content fingerprint of the coalesced class.
+     * <p>
+     * Must be called before the update stamp is written. Lines are trimmed, runs of whitespace are collapsed, and
+     * blank lines are dropped. Line breaks are kept, so no change that alters tokens goes unnoticed. The minifying
+     * and tree shaking modes are part of it, as the same raw class comes out differently under each.
+     *
+     * @param sb Coalesced class.
+     * @return The content fingerprint.
+     */
+    private String fingerprint(final CharSequence sb) {
+        final StringBuilder normalized = new StringBuilder(sb.length() + 16);
+        normalized.append(isMinifying ? "minified" : "raw").append(isTreeShaking ? " shaken" : "").append('\n');
+        boolean isLineStart = true;
+        boolean isPendingSpace = false;
+        for (int i = 0; i < sb.length(); ++i) {
+            final char ch = sb.charAt(i);
+            if (ch == '\n') {
+                if (!isLineStart) {
+                    normalized.append('\n');
+                }
+                isLineStart = true;
+                isPendingSpace = false;
+            } else if (Character.isWhitespace(ch)) {
+                isPendingSpace = !isLineStart;
+            } else {
+                if (isPendingSpace) {
+                    normalized.append(' ');
+                    isPendingSpace = false;
+                }
+                normalized.append(ch);
+                isLineStart = false;
+            }
+        }
+        return Hashes.sha256(normalized.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes the imports of the given files as a sorted block, type imports first and static imports after.
+     * <p>
+     * A single-type or single-static import is only written if its simple name appears in the code of a coalesced
+     * file. On-demand imports are always written.
+     *
+     * @param sb Output.
+     * @param coalescedFiles Files being coalesced.
+     * @return What happened to the imports.
+     */
+    private ImportReport writeImports(final StringBuilder sb, final List<JavaFile> coalescedFiles) {
+        final Set<String> sourcePackages = new HashSet<>();
+        javaFiles.forEach(javaFile -> {
+            if (!javaFile.getPackageName().isEmpty()) {
+                sourcePackages.add(javaFile.getPackageName());
+            }
+        });
+        final Set<String> imports = new HashSet<>();
+        coalescedFiles.forEach(javaFile -> javaFile.getImports().stream()
+                .filter(line -> !isSourcePackageImport(line, sourcePackages))
+                .forEach(imports::add));
+        final Set<String> usedIdentifiers = new HashSet<>();
+        final Set<String> declaredTypes = new HashSet<>();
+        coalescedFiles.forEach(javaFile -> {
+            usedIdentifiers.addAll(javaFile.getIdentifiers());
+            javaFile.getTypes().forEach(type -> declaredTypes.add(type.name()));
+        });
+        final SortedSet<String> typeImports = new TreeSet<>();
+        final SortedSet<String> staticImports = new TreeSet<>();
+        int prunedCount = 0;
         for (final String line: imports) {
+            if (!line.endsWith(".*;")) {
+                final int dotPos = line.lastIndexOf('.');
+                final String wildcardImport = line.substring(0, dotPos + 1) + "*;";
+                if (imports.contains(wildcardImport)) {
+                    continue;
+                }
+                if (!usedIdentifiers.contains(getSimpleName(line))) {
+                    ++prunedCount;
+                    continue;
+                }
+            }
+            (line.startsWith("import static ") ? staticImports : typeImports).add(line);
+        }
+        for (final String line: typeImports) {
+            sb.append(line).append(GStrings.NEW_LINE);
+        }
+        if (!typeImports.isEmpty() && !staticImports.isEmpty()) {
+            sb.append(GStrings.NEW_LINE);
+        }
+        for (final String line: staticImports) {
             sb.append(line).append(GStrings.NEW_LINE);
         }
         sb.append(GStrings.NEW_LINE);
+        final Map<String, List<String>> importsBySimpleName = groupBySimpleName(typeImports);
+        final List<String> collisions = new ArrayList<>();
+        final List<String> shadowed = new ArrayList<>();
+        importsBySimpleName.forEach((simpleName, qualifiedNames) -> {
+            if (qualifiedNames.size() > 1) {
+                collisions.add(simpleName + ": " + String.join(", ", qualifiedNames));
+            }
+            if (declaredTypes.contains(simpleName)) {
+                shadowed.add(simpleName + ": " + String.join(", ", qualifiedNames));
+            }
+        });
+        return new ImportReport(typeImports.size() + staticImports.size(), prunedCount, collisions, shadowed);
     }
 
-    private void writeMainClass(final StringBuilder sb, final JavaFile mainClass, final List<JavaFile> otherClasses) {
-        for (final String line: mainClass.getContents()) {
-            if (line.contains(MAGIC_COMMENT_UPDATESTAMP)) {
-                sb.append("    // ").append(getTimestamp()).append(GStrings.NEW_LINE);
-                final String[] graphic = new Graphic(40, 5, 10).toStringArray();
-                for (final String graphicLine: graphic) {
-                    sb.append("    // ").append(graphicLine).append(GStrings.NEW_LINE);
-                }
+    /**
+     * Groups single-type imports by simple name.
+     *
+     * @param typeImports Type imports, sorted.
+     * @return Qualified names by simple name, both in order.
+     */
+    private static Map<String, List<String>> groupBySimpleName(final SortedSet<String> typeImports) {
+        final Map<String, List<String>> importsBySimpleName = new TreeMap<>();
+        for (final String line: typeImports) {
+            if (!line.endsWith(".*;")) {
+                importsBySimpleName.computeIfAbsent(getSimpleName(line), name -> new ArrayList<>(1))
+                        .add(line.substring(7, line.length() - 1));
+            }
+        }
+        return importsBySimpleName;
+    }
+
+    /**
+     * Returns the simple name a single-type or single-static import brings in.
+     *
+     * @param line Normalized import line.
+     * @return The simple name.
+     */
+    private static String getSimpleName(final String line) {
+        return line.substring(line.lastIndexOf('.') + 1, line.length() - 1);
+    }
+
+    /**
+     * Tests if the given import refers to a package within the sources. Those types all end up in the
+     * coalesced class, so their imports must go.
+     *
+     * @param line Import line.
+     * @param sourcePackages Packages within the sources.
+     * @return True if the import refers to a package within the sources.
+     */
+    private boolean isSourcePackageImport(final String line, final Set<String> sourcePackages) {
+        if (sourcePackages.isEmpty()) {
+            return false;
+        }
+        String name = line.substring(7).trim();
+        if (name.startsWith("static ")) {
+            name = name.substring(7).trim();
+        }
+        for (final String sourcePackage: sourcePackages) {
+            if (name.startsWith(sourcePackage) && (name.length() > sourcePackage.length()) &&
+                    (name.charAt(sourcePackage.length()) == '.')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the main class with all other classes injected.
+     *
+     * @param sb Output.
+     * @param mainClass Main class.
+     * @param otherClasses All other classes.
+     * @return Where the update stamp goes in the output, or -1 if there is none. The stamp is left for later.
+     */
+    private int writeMainClass(final StringBuilder sb, final JavaFile mainClass, final List<JavaFile> otherClasses) {
+        int stampStart = -1;
+        final int lineCount = mainClass.getContentLineCount();
+        for (int index = 0; index < lineCount; ++index) {
+            if (mainClass.contentLineContains(index, MAGIC_COMMENT_UPDATESTAMP)) {
+                stampStart = sb.length();
                 continue;
-            } else if (line.contains(MAGIC_COMMENT_CODE)) {
+            } else if (mainClass.contentLineContains(index, MAGIC_COMMENT_CODE)) {
                 for (final JavaFile javaFile: otherClasses) {
                     writeOtherClass(sb, javaFile);
                     sb.append(GStrings.NEW_LINE);
                 }
                 continue;
             }
-            sb.append(line).append(GStrings.NEW_LINE);
+            mainClass.appendContentLine(sb, index);
+            sb.append(GStrings.NEW_LINE);
         }
+        return stampStart;
     }
 
+    /**
+     * Returns the update stamp: a line with the time and a graphic that makes it evident that the class changed.
+     * <p>
+     * A stable stamp has the start of the fingerprint instead of the time, and its graphic is seeded from it.
+     *
+     * @param fingerprint Content fingerprint.
+     * @return The update stamp lines.
+     */
+    private String getUpdateStamp(final String fingerprint) {
+        final StringBuilder stamp = new StringBuilder(256);
+        final String[] graphic;
+        if (isStableStamp) {
+            stamp.append("    // content|").append(fingerprint, 0, 16).append(GStrings.NEW_LINE);
+            graphic = graphicPool.get(Long.parseUnsignedLong(fingerprint.substring(0, 16), 16));
+        } else {
+            stamp.append("    // ").append(getTimestamp()).append(GStrings.NEW_LINE);
+            graphic = graphicPool.take();
+        }
+        for (final String graphicLine: graphic) {
+            stamp.append("    // ").append(graphicLine).append(GStrings.NEW_LINE);
+        }
+        return stamp.toString();
+    }
+
+    /**
+     * Writes a class nested within the main class. Top-level classes are made static; every other kind of
+     * type is implicitly static when nested.
+     *
+     * @param sb Output.
+     * @param javaFile Class to write.
+     */
     private void writeOtherClass(final StringBuilder sb, final JavaFile javaFile) {
-        boolean first = true;
-        for (final String line: javaFile.getContents()) {
-            if (first) {
-                sb.append("    ");
-                if (javaFile.getType() == JavaFileType.CLASS) {
+        final List<JavaFile.TypeDeclaration> types = javaFile.getTypes();
+        int typeIndex = 0;
+        final int lineCount = javaFile.getContentLineCount();
+        for (int index = 0; index < lineCount; ++index) {
+            sb.append("    ");
+            int pos = javaFile.getContentLineStart(index);
+            final int lineEnd = javaFile.getContentLineEnd(index);
+            while ((typeIndex < types.size()) && (types.get(typeIndex).start() <= lineEnd)) {
+                final JavaFile.TypeDeclaration type = types.get(typeIndex++);
+                if (type.type() == JavaFileType.CLASS) {
+                    javaFile.appendRange(sb, pos, type.start());
                     sb.append("static ");
+                    pos = type.start();
                 }
-                sb.append(line).append(GStrings.NEW_LINE);
-                first = false;
-                continue;
             }
-            sb.append("    ").append(line).append(GStrings.NEW_LINE);
+            javaFile.appendRange(sb, pos, lineEnd);
+            sb.append(GStrings.NEW_LINE);
         }
     }
 }
@@ -0,0 +1,196 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.masher;
+
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+
+import javax.tools.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Long-lived compile service that checks if a class compiles.
+ * <p>
+ * The compiler and its standard file manager are kept for the life of the service, so the platform class index
+ * is read once and javac stays warm across compilations. Class files are discarded as they are generated, and
+ * nothing is ever loaded.
+ * <p>
+ * The class path is empty, so only the platform modules are visible, as on a judge. Otherwise javac would search
+ * our own runtime class path, and code using our libraries would seem to compile.
+ * <p>
+ * A compilation must never be stopped by interrupting its thread. Javac reads through interruptible channels, and
+ * a channel closed by an interrupt breaks the shared file manager for every later compilation. Use the
+ * cancellation hook instead.
+ */
+public final class CompileService implements AutoCloseable {
+
+    /**
+     * Compilation result.
+     *
+     * @param isSuccess True if the class compiled.
+     * @param diagnosticCount Number of error diagnostics.
+     * @param nanos Time it took to compile in nanoseconds.
+     * @param isReused True if this result was reused from a previous compilation of the same content.
+     */
+    public record Result(boolean isSuccess, int diagnosticCount, long nanos, boolean isReused) {
+
+        /**
+         * Returns this result as reused by a later build. A reused result took no time.
+         *
+         * @return This result as reused.
+         */
+        public Result reused() {
+            return new Result(isSuccess, diagnosticCount, 0, true);
+        }
+    }
+
+    /**
+     * Source file object backed by a string.
+     */
+    private static final class StringSource extends SimpleJavaFileObject {
+
+        private final String code;
+
+        /**
+         * Creates a string source.
+         *
+         * @param className Class name.
+         * @param code Class code.
+         */
+        public StringSource(final String className, final String code) {
+            super(URI.create("string:///" + className + Kind.SOURCE.extension), Kind.SOURCE);
+            this.code = code;
+        }
+
+        @Override
+        public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+            return code;
+        }
+    }
+
+    /**
+     * Class file object that discards everything written to it.
+     */
+    private static final class DiscardedClass extends SimpleJavaFileObject {
+
+        /**
+         * Creates a discarded class file.
+         *
+         * @param className Class name.
+         */
+        public DiscardedClass(final String className) {
+            super(URI.create("discarded:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return OutputStream.nullOutputStream();
+        }
+    }
+
+    /**
+     * Compiler options.
+     */
+    private static final List<String> OPTIONS = List.of("-proc:none", "-g:none", "-Xlint:none");
+
+    private final JavaCompiler compiler;
+    private final StandardJavaFileManager standardFileManager;
+    private final JavaFileManager fileManager;
+
+    /**
+     * Creates the compile service.
+     *
+     * @throws IllegalStateException If there is no system Java compiler.
+     */
+    public CompileService() {
+        compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("No system Java compiler. A JDK is needed.");
+        }
+        standardFileManager = compiler.getStandardFileManager(null, null, null);
+        try {
+            standardFileManager.setLocation(StandardLocation.CLASS_PATH, List.of());
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        fileManager = new ForwardingJavaFileManager<>(standardFileManager) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(final Location location, final String className,
+                    final JavaFileObject.Kind kind, final FileObject sibling) {
+                return new DiscardedClass(className);
+            }
+        };
+    }
+
+    /**
+     * Compiles a small throwaway class, so the compiler's own classes are loaded and the platform classes most
+     * bots use are indexed before the first real compilation.
+     */
+    public void warmUp() {
+        compile("WarmUp", """
+                import java.util.*;
+                import java.util.stream.*;
+
+                class WarmUp {
+                    public static void main(String[] args) {
+                        Scanner in = new Scanner(System.in);
+                        List<Integer> values = new ArrayList<>(Map.of(1, 2).values());
+                        System.out.println(values.stream().map(String::valueOf).collect(Collectors.joining(" ")));
+                    }
+                }
+                """, () -> false);
+    }
+
+    /**
+     * Compiles the given class without keeping or loading the result.
+     *
+     * @param className Class name.
+     * @param classCode Class code.
+     * @param isCancelled Polled during compilation. When it returns true, compilation is abandoned.
+     * @return The compilation result.
+     * @throws CancellationException If compilation was abandoned.
+     */
+    public synchronized Result compile(final String className, final String classCode, final BooleanSupplier isCancelled) {
+        final long start = System.nanoTime();
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        final JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, OPTIONS, null,
+                List.of(new StringSource(className, classCode)));
+        if (task instanceof JavacTask javacTask) {
+            javacTask.addTaskListener(new TaskListener() {
+                @Override
+                public void started(final TaskEvent event) {
+                    if (isCancelled.getAsBoolean()) {
+                        throw new CancellationException();
+                    }
+                }
+            });
+        }
+        final boolean isSuccess;
+        try {
+            isSuccess = task.call();
+        } catch (final RuntimeException e) {
+            // Listener exceptions come back wrapped by javac.
+            if ((e instanceof CancellationException) || (e.getCause() instanceof CancellationException)) {
+                throw new CancellationException();
+            }
+            return new Result(false, 1, System.nanoTime() - start, false);
+        }
+        final int diagnosticCount = (int) diagnostics.getDiagnostics().stream()
+                .filter(diagnostic -> diagnostic.getKind() == Diagnostic.Kind.ERROR)
+                .count();
+        return new Result(isSuccess, diagnosticCount, System.nanoTime() - start, false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileManager.close();
+    }
+}
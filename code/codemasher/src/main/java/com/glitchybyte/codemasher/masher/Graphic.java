@@ -8,7 +8,8 @@ import java.util.*;
 /**
  * Generates an ASCII graphic.
  * <p>
- * The graphic is diagram-like consisting of circles and lines.
+ * The graphic is diagram-like consisting of circles and lines. Nodes are placed by trial and error, with a bounded
+ * number of tries. If the grid is too crowded to fit all of them, the graphic is drawn with fewer nodes.
  */
 public final class Graphic {
 
@@ -44,6 +45,16 @@ public final class Graphic {
      */
     private static final char EMPTY = ' ';
 
+    /**
+     * Tries at placing a node before giving up on a drawing.
+     */
+    private static final int ATTEMPTS_PER_NODE = 100;
+
+    /**
+     * Drawings started over before settling for one with fewer nodes.
+     */
+    private static final int MAX_DRAWS = 3;
+
     /**
      * The width of the grid.
      */
@@ -72,11 +83,28 @@ public final class Graphic {
      * @param nodeCount Number of nodes in the graphic.
      */
     public Graphic(final int width, final int height, final int nodeCount) {
+        this(width, height, nodeCount, new Random());
+    }
+
+    /**
+     * Creates a graphic with the given width, height, and number of nodes, drawn with the given random generator.
+     * The same seeded generator always draws the same graphic.
+     *
+     * @param width The width of the grid.
+     * @param height The height of the grid.
+     * @param nodeCount Number of nodes in the graphic.
+     * @param random Random generator.
+     */
+    public Graphic(final int width, final int height, final int nodeCount, final Random random) {
         this.width = width;
         this.height = height;
         this.nodeCount = nodeCount;
         grid = new char[height][width];
-        draw();
+        for (int draw = 0; draw < MAX_DRAWS; ++draw) {
+            if (draw(random)) {
+                break;
+            }
+        }
     }
 
     /**
@@ -88,19 +116,22 @@ public final class Graphic {
      *   \   \                /
      *    \   \              /
      *     o----o---o------o-----o
+     *
+     * @param random Random generator.
+     * @return True if all nodes were placed.
      */
-    private void draw() {
+    private boolean draw(final Random random) {
         // Clear canvas.
         for (int row = 0; row < height; ++row) {
             Arrays.fill(grid[row], EMPTY);
         }
         // Draw.
-        final Random random = new Random();
         final List<Coord> nodes = new ArrayList<>();
         final Coord origin = new Coord(random.nextInt(height), random.nextInt(width));
         nodes.add(origin);
         grid[origin.row][origin.col] = 'o';
-        while (nodes.size() < nodeCount) {
+        final int maxAttempts = nodeCount * ATTEMPTS_PER_NODE;
+        for (int attempt = 0; (attempt < maxAttempts) && (nodes.size() < nodeCount); ++attempt) {
             final Coord coord = nodes.get(random.nextInt(nodes.size()));
             switch (random.nextInt(8)) {
                 case 0 -> {
@@ -169,6 +200,7 @@ public final class Graphic {
                 }
             }
         }
+        return nodes.size() >= nodeCount;
     }
 
     /**
@@ -0,0 +1,96 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.masher;
+
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Small pool of graphics drawn ahead of time, so builds don't wait for one.
+ * <p>
+ * A background thread keeps the pool full. If builds come faster than it can draw, a graphic is drawn on the spot.
+ * Seeded graphics can't be drawn ahead of time, but the last one is remembered, as the same seed tends to be asked
+ * for again and again.
+ */
+public final class GraphicPool implements AutoCloseable {
+
+    /**
+     * Seeded graphic.
+     *
+     * @param seed Seed it was drawn with.
+     * @param graphic Graphic lines.
+     */
+    private record SeededGraphic(long seed, String[] graphic) {}
+
+    private final int width;
+    private final int height;
+    private final int nodeCount;
+    private final BlockingQueue<String[]> graphics;
+    private final Thread producer;
+    private volatile SeededGraphic lastSeededGraphic = null;
+
+    /**
+     * Creates a graphic pool and starts filling it.
+     *
+     * @param width The width of the grid.
+     * @param height The height of the grid.
+     * @param nodeCount Number of nodes in the graphic.
+     * @param capacity Number of graphics kept ready.
+     */
+    public GraphicPool(final int width, final int height, final int nodeCount, final int capacity) {
+        this.width = width;
+        this.height = height;
+        this.nodeCount = nodeCount;
+        graphics = new ArrayBlockingQueue<>(capacity);
+        producer = new Thread(this::produce, "graphic-pool");
+        producer.setDaemon(true);
+        producer.setPriority(Thread.MIN_PRIORITY);
+        producer.start();
+    }
+
+    private void produce() {
+        try {
+            while (true) {
+                graphics.put(new Graphic(width, height, nodeCount).toStringArray());
+            }
+        } catch (final InterruptedException e) {
+            // We out!
+        }
+    }
+
+    /**
+     * Takes a random graphic from the pool, or draws one if the pool is empty.
+     *
+     * @return Graphic lines.
+     */
+    public String[] take() {
+        final String[] graphic = graphics.poll();
+        return graphic == null ? new Graphic(width, height, nodeCount).toStringArray() : graphic;
+    }
+
+    /**
+     * Returns the graphic for the given seed. The same seed always gives the same graphic.
+     *
+     * @param seed Seed.
+     * @return Graphic lines.
+     */
+    public String[] get(final long seed) {
+        final SeededGraphic last = lastSeededGraphic;
+        if ((last != null) && (last.seed() == seed)) {
+            return last.graphic();
+        }
+        final String[] graphic = new Graphic(width, height, nodeCount, new Random(seed)).toStringArray();
+        lastSeededGraphic = new SeededGraphic(seed, graphic);
+        return graphic;
+    }
+
+    /**
+     * Stops filling the pool.
+     */
+    @Override
+    public void close() {
+        producer.interrupt();
+    }
+}
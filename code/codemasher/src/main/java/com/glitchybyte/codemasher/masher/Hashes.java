@@ -0,0 +1,32 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.masher;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Content hashing utilities.
+ */
+public final class Hashes {
+
+    private Hashes() {
+        // Hide constructor.
+    }
+
+    /**
+     * Hashes the given bytes.
+     *
+     * @param bytes Bytes to hash.
+     * @return A hex string of the hash.
+     */
+    public static String sha256(final byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -4,16 +4,38 @@
 package com.glitchybyte.codemasher.masher;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Holds a Java class file contents. Separating imports and principal class code.
+ * <p>
+ * The whole file is kept in a single character buffer with an array of line offsets. Lines are never
+ * materialized as strings; they are copied straight out of the buffer.
  */
 public final class JavaFile {
 
+    /**
+     * Top-level type declaration.
+     *
+     * @param type Declaration type.
+     * @param name Type name.
+     * @param start Offset where the declaration starts, including annotations and modifiers.
+     * @param end Offset right after the closing brace of the declaration.
+     */
+    public record TypeDeclaration(JavaFileType type, String name, int start, int end) {}
+
     /**
      * Factory to get a JavaFile directly from a path.
      *
@@ -22,43 +44,123 @@ public final class JavaFile {
      * @throws IOException If there is a problem reading the file.
      */
     public static JavaFile from(final Path path) throws IOException {
-        final String name = path.getFileName().toString();
-        final List<String> lines = Files.readAllLines(path);
-        return new JavaFile(name).parse(lines);
+        return from(path, Files.readAllBytes(path));
     }
 
+    /**
+     * Factory to get a JavaFile from the already read contents of a path.
+     *
+     * @param path Path of the Java file.
+     * @param bytes Contents of the Java file.
+     * @return A fully parsed JavaFile.
+     */
+    public static JavaFile from(final Path path, final byte[] bytes) {
+        return from(path, ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Decodes and parses the given contents.
+     *
+     * @param path Path of the Java file.
+     * @param bytes Contents of the Java file.
+     * @return A fully parsed JavaFile.
+     */
+    private static JavaFile from(final Path path, final ByteBuffer bytes) {
+        final CharBuffer chars;
+        try {
+            chars = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(bytes);
+        } catch (final CharacterCodingException e) {
+            // Can't happen when replacing.
+            throw new IllegalStateException(e);
+        }
+        return new JavaFile(path, chars.array(), chars.remaining()).parse();
+    }
+
+    /**
+     * Path of the file, as it was read.
+     */
+    public final Path path;
+
     /**
      * Filename.
      */
     public final String name;
 
+    /**
+     * Contents of the original file. Only the first {@code length} characters are valid.
+     */
+    private final char[] buffer;
+
+    /**
+     * Number of valid characters in the buffer.
+     */
+    private final int length;
+
+    /**
+     * Start offset of each line in the buffer. It has one extra entry at the end with the buffer length.
+     */
+    private int[] lineStarts;
+
     /**
      * Number of lines in original file.
      */
     private int originalLineCount;
 
+    /**
+     * Package of the original file. Empty for the default package.
+     */
+    private String packageName;
+
     /**
      * Imports in the original file.
      */
     private List<String> imports;
 
     /**
-     * Contents of original compilation unit, without imports.
+     * Top-level type declarations in the original file.
      */
-    private List<String> contents;
+    private List<TypeDeclaration> types;
 
     /**
-     * File type.
+     * Start offset of the compilation unit code.
      */
-    private JavaFileType type;
+    private int contentStart;
+
+    /**
+     * End offset of the compilation unit code.
+     */
+    private int contentEnd;
+
+    /**
+     * First line of the compilation unit code.
+     */
+    private int contentStartLine;
+
+    /**
+     * Line after the last line of the compilation unit code.
+     */
+    private int contentEndLine;
+
+    /**
+     * Identifiers in the compilation unit code. Computed on first use.
+     */
+    private volatile Set<String> identifiers = null;
 
     /**
      * Creates a Java file contents holder.
      *
-     * @param name Filename.
+     * @param path Path of the file.
+     * @param buffer Contents of the file.
+     * @param length Number of valid characters in the buffer.
      */
-    private JavaFile(final String name) {
-        this.name = name;
+    private JavaFile(final Path path, final char[] buffer, final int length) {
+        this.path = path;
+        name = path.getFileName().toString();
+        this.buffer = buffer;
+        this.length = length;
     }
 
     /**
@@ -70,6 +172,24 @@ public final class JavaFile {
         return originalLineCount;
     }
 
+    /**
+     * Returns the number of characters in the original file.
+     *
+     * @return The number of characters in the original file.
+     */
+    public int getCharCount() {
+        return length;
+    }
+
+    /**
+     * Returns the package of the original file.
+     *
+     * @return The package of the original file. Empty for the default package.
+     */
+    public String getPackageName() {
+        return packageName;
+    }
+
     /**
      * Returns the imports in the original file.
      *
@@ -80,91 +200,319 @@ public final class JavaFile {
     }
 
     /**
-     * Returns the contents of the original compilation unit, without imports.
+     * Returns the number of lines of the original compilation unit, without imports.
+     *
+     * @return The number of lines of the original compilation unit, without imports.
+     */
+    public int getContentLineCount() {
+        return contentEndLine - contentStartLine;
+    }
+
+    /**
+     * Appends a line of the original compilation unit, without its line terminator.
+     *
+     * @param sb Output.
+     * @param index Index of the line within the compilation unit.
+     */
+    public void appendContentLine(final StringBuilder sb, final int index) {
+        appendRange(sb, getContentLineStart(index), getContentLineEnd(index));
+    }
+
+    /**
+     * Returns the start offset of a line of the original compilation unit.
      *
-     * @return The contents of the original compilation unit, without imports.
+     * @param index Index of the line within the compilation unit.
+     * @return The start offset of the line.
      */
-    public List<String> getContents() {
-        return contents;
+    public int getContentLineStart(final int index) {
+        return Math.max(lineStarts[contentStartLine + index], contentStart);
     }
 
     /**
-     * Returns the compilation unit file type.
+     * Returns the end offset of a line of the original compilation unit, without its line terminator.
      *
-     * @return The compilation unit file type.
+     * @param index Index of the line within the compilation unit.
+     * @return The end offset of the line.
+     */
+    public int getContentLineEnd(final int index) {
+        return Math.min(lineEnd(contentStartLine + index), contentEnd);
+    }
+
+    /**
+     * Appends a range of the original file.
+     *
+     * @param sb Output.
+     * @param start Start offset.
+     * @param end End offset.
+     */
+    public void appendRange(final StringBuilder sb, final int start, final int end) {
+        sb.append(buffer, start, end - start);
+    }
+
+    /**
+     * Tests if a line of the original compilation unit contains the given text.
+     *
+     * @param index Index of the line within the compilation unit.
+     * @param text Text to find.
+     * @return True if the line contains the text.
+     */
+    public boolean contentLineContains(final int index, final String text) {
+        return regionContains(getContentLineStart(index), getContentLineEnd(index), text);
+    }
+
+    /**
+     * Returns every identifier, including keywords, that appears in the compilation unit code. Comments and
+     * literals are not looked into. Package and import declarations are not part of the code.
+     * <p>
+     * Computed on first use and kept, so it is worked out once per version of a file.
+     *
+     * @return The identifiers in the compilation unit code.
+     */
+    public Set<String> getIdentifiers() {
+        Set<String> result = identifiers;
+        if (result == null) {
+            final Set<String> found = new HashSet<>();
+            final JavaLexer lexer = new JavaLexer(buffer, contentStart, contentEnd);
+            while (lexer.next() != JavaLexer.TokenKind.END) {
+                if (lexer.getTokenKind() == JavaLexer.TokenKind.IDENTIFIER) {
+                    found.add(lexer.getTokenText());
+                }
+            }
+            result = Collections.unmodifiableSet(found);
+            identifiers = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the top-level type declarations, in order.
+     *
+     * @return The top-level type declarations.
+     */
+    public List<TypeDeclaration> getTypes() {
+        return types;
+    }
+
+    /**
+     * Returns the compilation unit file type. That is the type of its first top-level declaration.
+     *
+     * @return The compilation unit file type, or null if there are no type declarations.
      */
     public JavaFileType getType() {
-        return type;
+        return types.isEmpty() ? null : types.get(0).type();
     }
 
     /**
-     * Parses the given lines and extracts imports and contents.
+     * Parses the buffer and extracts package, imports, and top-level type declarations in a single pass.
      *
-     * @param lines All lines in the file.
      * @return A fully parsed JavaFile object.
      */
-    private JavaFile parse(final List<String> lines) {
-        originalLineCount = lines.size();
-        imports = parseImports(lines);
-        contents = parseContents(lines);
-        type = extractType(contents.get(0));
+    private JavaFile parse() {
+        lineStarts = findLineStarts();
+        originalLineCount = lineStarts.length - 1;
+        packageName = "";
+        imports = new ArrayList<>();
+        types = new ArrayList<>();
+        final JavaLexer lexer = new JavaLexer(buffer, 0, length);
+        int depth = 0;
+        int parenDepth = 0;
+        int declarationStart = -1;
+        JavaFileType declarationType = null;
+        String declarationName = null;
+        boolean isExpectingName = false;
+        boolean isPendingRecord = false;
+        while (lexer.next() != JavaLexer.TokenKind.END) {
+            if (depth > 0) {
+                // Inside a type body. Only track braces.
+                if (lexer.isSymbol('{')) {
+                    ++depth;
+                } else if (lexer.isSymbol('}') && (--depth == 0)) {
+                    if (declarationType != null) {
+                        types.add(new TypeDeclaration(declarationType, declarationName, declarationStart, lexer.getTokenEnd()));
+                    }
+                    declarationStart = -1;
+                    declarationType = null;
+                    declarationName = null;
+                }
+                continue;
+            }
+            final boolean isStatementStart = declarationStart < 0;
+            if (isStatementStart) {
+                declarationStart = lexer.getTokenStart();
+            }
+            if (lexer.getTokenKind() == JavaLexer.TokenKind.IDENTIFIER) {
+                if (isPendingRecord) {
+                    // "record" followed by a name is a record declaration.
+                    isPendingRecord = false;
+                    declarationType = JavaFileType.RECORD;
+                    declarationName = lexer.getTokenText();
+                } else if (isExpectingName) {
+                    isExpectingName = false;
+                    declarationName = lexer.getTokenText();
+                } else if ((parenDepth > 0) || (declarationType != null)) {
+                    // Annotation arguments, or a declaration header.
+                    continue;
+                } else if (isStatementStart && lexer.isIdentifier("package")) {
+                    packageName = readQualifiedName(lexer, null);
+                    declarationStart = -1;
+                } else if (isStatementStart && lexer.isIdentifier("import")) {
+                    imports.add(readQualifiedName(lexer, "import "));
+                    declarationStart = -1;
+                } else if (lexer.isIdentifier("class")) {
+                    declarationType = JavaFileType.CLASS;
+                    isExpectingName = true;
+                } else if (lexer.isIdentifier("interface")) {
+                    declarationType = isPrecededByAt(lexer) ? JavaFileType.ANNOTATION : JavaFileType.INTERFACE;
+                    isExpectingName = true;
+                } else if (lexer.isIdentifier("enum")) {
+                    declarationType = JavaFileType.ENUM;
+                    isExpectingName = true;
+                } else if (lexer.isIdentifier("record")) {
+                    isPendingRecord = true;
+                }
+                continue;
+            }
+            isPendingRecord = false;
+            if (lexer.isSymbol('(')) {
+                ++parenDepth;
+            } else if (lexer.isSymbol(')')) {
+                parenDepth = Math.max(0, parenDepth - 1);
+            } else if (parenDepth > 0) {
+                // Braces in annotation arguments are balanced within the parentheses.
+                continue;
+            } else if (lexer.isSymbol('{')) {
+                depth = 1;
+            } else if (lexer.isSymbol(';')) {
+                declarationStart = -1;
+                declarationType = null;
+                declarationName = null;
+            }
+        }
+        if (types.isEmpty()) {
+            contentStart = length;
+            contentEnd = length;
+            contentStartLine = originalLineCount;
+            contentEndLine = originalLineCount;
+        } else {
+            contentStart = types.get(0).start();
+            contentEnd = types.get(types.size() - 1).end();
+            contentStartLine = lineOf(contentStart);
+            contentEndLine = lineOf(contentEnd - 1) + 1;
+        }
         return this;
     }
 
-    private JavaFileType extractType(final String line) {
-        final String trimmedLine = line.trim();
-        if (trimmedLine.contains("class ") && trimmedLine.endsWith(" {")) {
-            return JavaFileType.CLASS;
+    /**
+     * Reads a qualified name up to and including the terminating semicolon. Used for package and import
+     * declarations.
+     *
+     * @param lexer Lexer positioned at the declaration keyword.
+     * @param prefix If not null, the declaration is returned in normalized form with this prefix and a
+     *               terminating semicolon. If null, only the name is returned.
+     * @return The name, or the normalized declaration.
+     */
+    private String readQualifiedName(final JavaLexer lexer, final String prefix) {
+        final StringBuilder sb = new StringBuilder(64);
+        if (prefix != null) {
+            sb.append(prefix);
+        }
+        while ((lexer.next() != JavaLexer.TokenKind.END) && !lexer.isSymbol(';')) {
+            sb.append(buffer, lexer.getTokenStart(), lexer.getTokenEnd() - lexer.getTokenStart());
+            if (lexer.isIdentifier("static")) {
+                sb.append(' ');
+            }
         }
-        if (trimmedLine.contains("interface ") && trimmedLine.endsWith(" {")) {
-            return JavaFileType.INTERFACE;
+        if (prefix != null) {
+            sb.append(';');
         }
-        if (trimmedLine.contains("enum ") && trimmedLine.endsWith(" {")) {
-            return JavaFileType.ENUM;
+        return sb.toString();
+    }
+
+    /**
+     * Tests if the current token is immediately preceded by {@code @}, ignoring whitespace.
+     *
+     * @param lexer Lexer.
+     * @return True if preceded by {@code @}.
+     */
+    private boolean isPrecededByAt(final JavaLexer lexer) {
+        int pos = lexer.getTokenStart() - 1;
+        while ((pos >= 0) && Character.isWhitespace(buffer[pos])) {
+            --pos;
         }
-        return null;
+        return (pos >= 0) && (buffer[pos] == '@');
     }
 
     /**
-     * Extracts only the imports from the Java file.
+     * Returns the line that contains the given offset.
      *
-     * @return The imports from the Java file.
+     * @param offset Offset in the buffer.
+     * @return The line index.
      */
-    private List<String> parseImports(final List<String> lines) {
-        final List<String> imports = new ArrayList<>();
-        for (final String line: lines) {
-            if (extractType(line) != null) {
-                break;
+    private int lineOf(final int offset) {
+        final int index = Arrays.binarySearch(lineStarts, 0, originalLineCount, offset);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * Finds the start offset of every line.
+     *
+     * @return The start offsets, with an extra entry at the end with the buffer length.
+     */
+    private int[] findLineStarts() {
+        int[] starts = new int[Math.max(16, length / 32)];
+        int count = 0;
+        int pos = 0;
+        while (pos < length) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+            }
+            starts[count++] = pos;
+            while ((pos < length) && (buffer[pos] != '\n') && (buffer[pos] != '\r')) {
+                ++pos;
             }
-            final String trimmed = line.trim();
-            if (trimmed.startsWith("import ")) {
-                imports.add(trimmed);
+            if ((pos < length) && (buffer[pos] == '\r')) {
+                ++pos;
+            }
+            if ((pos < length) && (buffer[pos] == '\n')) {
+                ++pos;
             }
         }
-        return imports;
+        final int[] lineStarts = Arrays.copyOf(starts, count + 1);
+        lineStarts[count] = length;
+        return lineStarts;
     }
 
     /**
-     * Extracts the compilation unit code.
+     * Returns the end offset of a line, without its line terminator.
      *
-     * @return The compilation unit code.
+     * @param line Line index.
+     * @return The end offset of the line.
      */
-    private List<String> parseContents(final List<String> lines) {
-        final List<String> contents = new ArrayList<>();
-        boolean foundUnit = false;
-        for (final String line: lines) {
-            if (!foundUnit) {
-                if (extractType(line) != null) {
-                    foundUnit = true;
-                    contents.add(line);
-                }
-                continue;
+    private int lineEnd(final int line) {
+        int end = lineStarts[line + 1];
+        final int start = lineStarts[line];
+        while ((end > start) && ((buffer[end - 1] == '\n') || (buffer[end - 1] == '\r'))) {
+            --end;
+        }
+        return end;
+    }
+
+    private boolean regionContains(final int start, final int end, final String text) {
+        final int last = end - text.length();
+        for (int pos = start; pos <= last; ++pos) {
+            if (regionMatches(pos, text)) {
+                return true;
             }
-            contents.add(line);
-            if (line.startsWith("}")) {
-                break;
+        }
+        return false;
+    }
+
+    private boolean regionMatches(final int pos, final String text) {
+        for (int i = 0; i < text.length(); ++i) {
+            if (buffer[pos + i] != text.charAt(i)) {
+                return false;
             }
         }
-        return contents;
+        return true;
     }
 }
@@ -0,0 +1,145 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.masher;
+
+import com.glitchybyte.codemasher.jfr.ParseEvent;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of parsed Java files keyed by path.
+ * <p>
+ * A file is only re-read and re-parsed when its file key, size, or modification time changed. Optionally, a
+ * content hash is kept so that a file that was touched but not modified is not re-parsed.
+ */
+public final class JavaFileCache {
+
+    /**
+     * Cached parsed file and the attributes it was parsed with.
+     *
+     * @param fileKey File key, as reported by the file system. May be null.
+     * @param size Size in bytes.
+     * @param lastModified Last modified time.
+     * @param contentHash Content hash. Null if content hashing is disabled.
+     * @param javaFile Parsed Java file.
+     * @param isStale True if the file was reported changed and its attributes can't be trusted.
+     */
+    private record Entry(Object fileKey, long size, FileTime lastModified, String contentHash, JavaFile javaFile,
+            boolean isStale) {
+
+        /**
+         * Tests if this entry was created from a file with the given attributes.
+         *
+         * @param attributes File attributes.
+         * @return True if the attributes match.
+         */
+        public boolean matches(final BasicFileAttributes attributes) {
+            return !isStale &&
+                    Objects.equals(fileKey, attributes.fileKey()) &&
+                    (size == attributes.size()) &&
+                    lastModified.equals(attributes.lastModifiedTime());
+        }
+    }
+
+    /**
+     * Parsed Java file and where it came from.
+     *
+     * @param javaFile Parsed Java file.
+     * @param isHit True if it came from the cache, false if it was parsed.
+     */
+    public record Lookup(JavaFile javaFile, boolean isHit) {}
+
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    private final boolean isHashingContent;
+
+    /**
+     * Creates a Java file cache.
+     *
+     * @param isHashingContent True to keep a content hash and use it to avoid re-parsing touched files.
+     */
+    public JavaFileCache(final boolean isHashingContent) {
+        this.isHashingContent = isHashingContent;
+    }
+
+    /**
+     * Returns the parsed Java file at the given path, parsing it only if it changed since it was last cached, and
+     * tells whether it was parsed.
+     * <p>
+     * Concurrent builds share the cache, so each build counts its own hits and misses from the lookups it made.
+     *
+     * @param path Path of the Java file.
+     * @return The fully parsed JavaFile, and whether it came from the cache.
+     * @throws IOException If there is a problem reading the file.
+     */
+    public Lookup lookup(final Path path) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        final Entry entry = entries.get(path);
+        if ((entry != null) && entry.matches(attributes)) {
+            return new Lookup(entry.javaFile(), true);
+        }
+        if (!isHashingContent) {
+            final ParseEvent event = new ParseEvent();
+            event.begin();
+            final JavaFile javaFile = JavaFile.from(path);
+            commitParseEvent(event, path, javaFile, false);
+            entries.put(path, new Entry(attributes.fileKey(), attributes.size(), attributes.lastModifiedTime(), null,
+                    javaFile, false));
+            return new Lookup(javaFile, false);
+        }
+        final byte[] bytes = Files.readAllBytes(path);
+        final String contentHash = Hashes.sha256(bytes);
+        final JavaFile javaFile;
+        final boolean isHit = (entry != null) && contentHash.equals(entry.contentHash());
+        if (isHit) {
+            // Touched, but not modified.
+            javaFile = entry.javaFile();
+        } else {
+            final ParseEvent event = new ParseEvent();
+            event.begin();
+            javaFile = JavaFile.from(path, bytes);
+            commitParseEvent(event, path, javaFile, true);
+        }
+        entries.put(path, new Entry(attributes.fileKey(), attributes.size(), attributes.lastModifiedTime(), contentHash,
+                javaFile, false));
+        return new Lookup(javaFile, isHit);
+    }
+
+    private static void commitParseEvent(final ParseEvent event, final Path path, final JavaFile javaFile,
+            final boolean isHashed) {
+        if (event.shouldCommit()) {
+            event.path = path.toString();
+            event.lineCount = javaFile.getOriginalLineCount();
+            event.charCount = javaFile.getCharCount();
+            event.isHashed = isHashed;
+            event.commit();
+        }
+    }
+
+    /**
+     * Marks the given path as changed, forcing it to be re-validated next time it is requested even if its
+     * attributes look the same. If content hashing is enabled, the file is only re-parsed if its contents changed.
+     *
+     * @param path Path of the Java file.
+     */
+    public void invalidate(final Path path) {
+        entries.computeIfPresent(path, (key, entry) -> new Entry(entry.fileKey(), entry.size(), entry.lastModified(),
+                entry.contentHash(), entry.javaFile(), true));
+    }
+
+    /**
+     * Forgets every path not in the given collection.
+     *
+     * @param paths Paths to keep.
+     */
+    public void retainOnly(final Collection<Path> paths) {
+        entries.keySet().retainAll(paths);
+    }
+}
@@ -7,5 +7,7 @@ public enum JavaFileType {
 
     CLASS,
     INTERFACE,
-    ENUM
+    ENUM,
+    RECORD,
+    ANNOTATION
 }
@@ -0,0 +1,243 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.masher;
+
+/**
+ * Allocation-free Java tokenizer over a character buffer.
+ * <p>
+ * Whitespace and comments are skipped. String, character, and text block literals are single tokens, so nothing
+ * inside them is mistaken for code. Operators and separators are returned one character at a time; whether two
+ * of them were adjacent can be told from their offsets.
+ */
+public final class JavaLexer {
+
+    /**
+     * Token kinds.
+     */
+    public enum TokenKind {
+        IDENTIFIER,
+        NUMBER,
+        STRING,
+        CHARACTER,
+        TEXT_BLOCK,
+        SYMBOL,
+        END
+    }
+
+    private final char[] buffer;
+    private final int end;
+    private int pos;
+    private TokenKind tokenKind = null;
+    private int tokenStart = 0;
+    private int tokenEnd = 0;
+
+    /**
+     * Creates a lexer over a region of a buffer.
+     *
+     * @param buffer Buffer.
+     * @param start Start of the region.
+     * @param end End of the region.
+     */
+    public JavaLexer(final char[] buffer, final int start, final int end) {
+        this.buffer = buffer;
+        this.end = end;
+        pos = start;
+    }
+
+    /**
+     * Advances to the next token.
+     *
+     * @return The kind of the next token. {@link TokenKind#END} when there are no more tokens.
+     */
+    public TokenKind next() {
+        skipWhitespaceAndComments();
+        tokenStart = pos;
+        if (pos >= end) {
+            tokenEnd = pos;
+            tokenKind = TokenKind.END;
+            return tokenKind;
+        }
+        final char ch = buffer[pos];
+        if (Character.isJavaIdentifierStart(ch)) {
+            ++pos;
+            while ((pos < end) && Character.isJavaIdentifierPart(buffer[pos])) {
+                ++pos;
+            }
+            tokenKind = TokenKind.IDENTIFIER;
+        } else if (isDigit(ch) || ((ch == '.') && (pos + 1 < end) && isDigit(buffer[pos + 1]))) {
+            skipNumber();
+            tokenKind = TokenKind.NUMBER;
+        } else if ((ch == '"') && (pos + 2 < end) && (buffer[pos + 1] == '"') && (buffer[pos + 2] == '"')) {
+            skipTextBlock();
+            tokenKind = TokenKind.TEXT_BLOCK;
+        } else if (ch == '"') {
+            skipQuoted('"');
+            tokenKind = TokenKind.STRING;
+        } else if (ch == '\'') {
+            skipQuoted('\'');
+            tokenKind = TokenKind.CHARACTER;
+        } else {
+            ++pos;
+            tokenKind = TokenKind.SYMBOL;
+        }
+        tokenEnd = pos;
+        return tokenKind;
+    }
+
+    /**
+     * Returns the kind of the current token.
+     *
+     * @return The kind of the current token.
+     */
+    public TokenKind getTokenKind() {
+        return tokenKind;
+    }
+
+    /**
+     * Returns the start offset of the current token.
+     *
+     * @return The start offset of the current token.
+     */
+    public int getTokenStart() {
+        return tokenStart;
+    }
+
+    /**
+     * Returns the end offset of the current token.
+     *
+     * @return The end offset of the current token.
+     */
+    public int getTokenEnd() {
+        return tokenEnd;
+    }
+
+    /**
+     * Returns the first character of the current token. For symbols, the symbol itself.
+     *
+     * @return The first character of the current token.
+     */
+    public char getTokenChar() {
+        return buffer[tokenStart];
+    }
+
+    /**
+     * Tests if the current token is the given symbol.
+     *
+     * @param symbol Symbol.
+     * @return True if the current token is the symbol.
+     */
+    public boolean isSymbol(final char symbol) {
+        return (tokenKind == TokenKind.SYMBOL) && (buffer[tokenStart] == symbol);
+    }
+
+    /**
+     * Tests if the current token is the given identifier or keyword.
+     *
+     * @param text Identifier or keyword.
+     * @return True if the current token is the identifier.
+     */
+    public boolean isIdentifier(final String text) {
+        if ((tokenKind != TokenKind.IDENTIFIER) || ((tokenEnd - tokenStart) != text.length())) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); ++i) {
+            if (buffer[tokenStart + i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the current token as a string.
+     *
+     * @return The current token as a string.
+     */
+    public String getTokenText() {
+        return new String(buffer, tokenStart, tokenEnd - tokenStart);
+    }
+
+    private void skipWhitespaceAndComments() {
+        while (pos < end) {
+            final char ch = buffer[pos];
+            if (Character.isWhitespace(ch)) {
+                ++pos;
+            } else if ((ch == '/') && (pos + 1 < end) && (buffer[pos + 1] == '/')) {
+                pos += 2;
+                while ((pos < end) && (buffer[pos] != '\n') && (buffer[pos] != '\r')) {
+                    ++pos;
+                }
+            } else if ((ch == '/') && (pos + 1 < end) && (buffer[pos + 1] == '*')) {
+                pos += 2;
+                while ((pos < end) && !((buffer[pos] == '*') && (pos + 1 < end) && (buffer[pos + 1] == '/'))) {
+                    ++pos;
+                }
+                pos = Math.min(end, pos + 2);
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void skipNumber() {
+        // Hex literals have binary exponents (p), everything else decimal exponents (e). An 'e' in a hex literal is
+        // just a digit.
+        final boolean isHex = (pos + 1 < end) && (buffer[pos] == '0') &&
+                ((buffer[pos + 1] == 'x') || (buffer[pos + 1] == 'X'));
+        while (pos < end) {
+            final char ch = buffer[pos];
+            if ((ch == '+') || (ch == '-')) {
+                // Only part of the number as an exponent sign.
+                final char previous = Character.toLowerCase(buffer[pos - 1]);
+                if (previous != (isHex ? 'p' : 'e')) {
+                    return;
+                }
+                ++pos;
+            } else if (Character.isLetterOrDigit(ch) || (ch == '_') || (ch == '.')) {
+                ++pos;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void skipQuoted(final char quote) {
+        ++pos;
+        while (pos < end) {
+            final char ch = buffer[pos];
+            if (ch == '\\') {
+                pos += 2;
+            } else if (ch == quote) {
+                ++pos;
+                return;
+            } else if ((ch == '\n') || (ch == '\r')) {
+                // Unterminated. Stop at the end of the line.
+                return;
+            } else {
+                ++pos;
+            }
+        }
+        pos = Math.min(pos, end);
+    }
+
+    private void skipTextBlock() {
+        pos += 3;
+        while (pos < end) {
+            final char ch = buffer[pos];
+            if (ch == '\\') {
+                pos += 2;
+            } else if ((ch == '"') && (pos + 2 < end) && (buffer[pos + 1] == '"') && (buffer[pos + 2] == '"')) {
+                pos += 3;
+                return;
+            } else {
+                ++pos;
+            }
+        }
+        pos = Math.min(pos, end);
+    }
+
+    private static boolean isDigit(final char ch) {
+        return (ch >= '0') && (ch <= '9');
+    }
+}
@@ -4,66 +4,147 @@
 package com.glitchybyte.codemasher.masher;
 
 import com.glitchybyte.codemasher.MiniDisplay;
-import com.glitchybyte.glib.function.GSupplierWithException;
+import com.glitchybyte.codemasher.jfr.CoalesceEvent;
+import com.glitchybyte.codemasher.jfr.CompileEvent;
+import com.glitchybyte.codemasher.jfr.PublishEvent;
+import com.glitchybyte.codemasher.jfr.WatchBatchEvent;
 import com.glitchybyte.glib.log.GLog;
-import com.glitchybyte.glib.wrapped.GWrappedString;
-import com.sun.nio.file.SensitivityWatchEventModifier;
-import org.mdkt.compiler.InMemoryJavaCompiler;
 
 import java.io.IOException;
 import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Objects;
-import java.util.function.Supplier;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 public final class Masher implements Runnable {
 
-    private final Path watchedPath;
-    private final String mainJavaFilename;
-    private final GWrappedString coalescedClass;
+    /**
+     * Compilation verdict for a coalesced class fingerprint.
+     *
+     * @param fingerprint Coalesced class fingerprint.
+     * @param result Compilation result.
+     */
+    private record CompiledFingerprint(String fingerprint, CompileService.Result result) {}
+
+    /**
+     * Java files parsed for one build.
+     *
+     * @param javaFiles Parsed Java files, in scan order.
+     * @param hitCount Number of files that came from the cache.
+     * @param missCount Number of files that were parsed.
+     * @param unreadablePaths Paths of the files that couldn't be read, other than those gone since scanning.
+     */
+    private record ParsedFiles(List<JavaFile> javaFiles, int hitCount, int missCount, List<Path> unreadablePaths) {}
+
+    /**
+     * Most builds running at once: the latest, and one it superseded that is finishing its current stage. Builds
+     * beyond that wait their turn, and are usually cancelled before they start.
+     */
+    private static final int MAX_RUNNING_BUILDS = 2;
+
+    private final Path mainJavaPath;
+    private final BuildPublisher publisher;
     private final MiniDisplay display;
+    private final JavaFileCache javaFileCache;
+    private final long debounceMillis;
+    private final BuildCache buildCache;
+    private final boolean isTreeShaking;
+    private final boolean isMinifying;
+    private final boolean isStableStamp;
+    private final BuildMetrics metrics;
+    private final SourceTree sourceTree;
+    private final CompileService compileService = new CompileService();
+    private final GraphicPool graphicPool = Coalescer.createStampGraphicPool();
+    private final ExecutorService buildPool = Executors.newFixedThreadPool(MAX_RUNNING_BUILDS);
+    private final ExecutorService parsePool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    private final AtomicLong latestGeneration = new AtomicLong(0);
+    private long publishedGeneration = 0;
+    private Future<?> currentBuild = null;
+    private volatile CompiledFingerprint lastCompiledFingerprint = null;
 
-    public Masher(final Path watchedPath, final String mainJavaFilename, final GWrappedString coalescedClass,
-            final MiniDisplay miniDisplay) {
-        this.watchedPath = watchedPath;
-        this.mainJavaFilename = mainJavaFilename;
-        this.coalescedClass = coalescedClass;
+    public Masher(final Path watchedPath, final String mainJavaFilename, final BuildPublisher publisher,
+            final MiniDisplay miniDisplay, final JavaFileCache javaFileCache, final long debounceMillis,
+            final BuildCache buildCache, final boolean isTreeShaking, final boolean isMinifying,
+            final boolean isStableStamp, final BuildMetrics metrics) {
+        mainJavaPath = watchedPath.resolve(mainJavaFilename);
+        this.publisher = publisher;
+        this.javaFileCache = javaFileCache;
+        this.debounceMillis = debounceMillis;
+        this.buildCache = buildCache;
+        this.isTreeShaking = isTreeShaking;
+        this.isMinifying = isMinifying;
+        this.isStableStamp = isStableStamp;
+        this.metrics = metrics;
+        sourceTree = new SourceTree(watchedPath);
         display = miniDisplay;
         display.setWatchedDirectory(watchedPath);
+        restoreCachedBuild();
+    }
+
+    /**
+     * Serves the cached build, if any, until the first build is published. If the sources haven't changed since,
+     * the first build's fingerprint matches and its compilation is skipped.
+     */
+    private void restoreCachedBuild() {
+        if (buildCache == null) {
+            return;
+        }
+        final BuildCache.CachedBuild cachedBuild = buildCache.load();
+        if (cachedBuild == null) {
+            return;
+        }
+        publisher.publish(cachedBuild.code());
+        lastCompiledFingerprint = new CompiledFingerprint(cachedBuild.fingerprint(), cachedBuild.result());
     }
 
     @Override
     public void run() {
-        watchSources(this::onSourceChange);
+        try {
+            // Warm up javac while the first build scans and parses. Its compilation waits for this to finish.
+            buildPool.execute(compileService::warmUp);
+            watchSources(this::onSourceChange);
+        } finally {
+            buildPool.shutdownNow();
+            parsePool.shutdownNow();
+            graphicPool.close();
+            if (buildCache != null) {
+                buildCache.close();
+            }
+            try {
+                compileService.close();
+            } catch (final IOException e) {
+                GLog.severe(e);
+            }
+        }
     }
 
-    private void watchSources(final Supplier<Exception> onChange) {
-        try {
+    private void watchSources(final Function<Set<Path>, Exception> onChange) {
+        try (final WatchService watchService = FileSystems.getDefault().newWatchService()) {
             // Register watcher.
-            final WatchService watchService = FileSystems.getDefault().newWatchService();
-            watchedPath.register(watchService,
-                    new WatchEvent.Kind[] {
-                            StandardWatchEventKinds.ENTRY_CREATE,
-                            StandardWatchEventKinds.ENTRY_DELETE,
-                            StandardWatchEventKinds.ENTRY_MODIFY
-                    },
-                    SensitivityWatchEventModifier.HIGH
-            );
+            sourceTree.register(watchService);
             // Watch loop.
+            Set<Path> changedPaths = Set.of();
             while (true) {
-                final Exception result = onChange.get();
+                final Exception result = onChange.apply(changedPaths);
                 if (result != null) {
                     GLog.severe(result);
                     return;
                 }
                 try {
-                    final WatchKey key = watchService.take();
-                    if (key == null) {
-                        continue;
-                    }
-                    key.pollEvents();
-                    if (!key.reset()) {
-                        GLog.severe("Can't reset watch key. Exiting!");
+                    changedPaths = awaitChanges(watchService);
+                    if (changedPaths == null) {
+                        GLog.severe("Watched directory is gone. Exiting!");
                         return;
                     }
                 } catch (final InterruptedException e) {
@@ -76,50 +157,287 @@ public final class Masher implements Runnable {
         }
     }
 
-    private Exception onSourceChange() {
-        try {
-            final String mainClassName = getClassName(mainJavaFilename);
-            final List<JavaFile> javaFiles = gatherJavaFiles(watchedPath);
-            final Coalescer coalescer = new Coalescer(javaFiles, mainClassName);
-            final String newCoalescedClass = coalescer.coalesce();
-            final boolean compileSuccess = (newCoalescedClass != null) && doesClassCompile(mainClassName, newCoalescedClass);
-            if (compileSuccess) {
-                synchronized (coalescedClass) {
-                    coalescedClass.value = newCoalescedClass;
+    /**
+     * Blocks until a batch of relevant changes arrives.
+     * <p>
+     * Events arriving within the debounce quiet period of each other are collapsed into a single batch. Changes
+     * to temporary files are ignored, and a batch with only those keeps waiting. Created and deleted directories
+     * are registered and forgotten as they come.
+     *
+     * @param watchService Watch service.
+     * @return The changed paths, or null if the watched directory is gone.
+     * @throws InterruptedException If interrupted while waiting.
+     * @throws IOException If there is a problem registering a created directory.
+     */
+    private Set<Path> awaitChanges(final WatchService watchService) throws InterruptedException, IOException {
+        final Set<Path> changedPaths = new HashSet<>();
+        boolean hasOverflowed = false;
+        final WatchBatchEvent batchEvent = new WatchBatchEvent();
+        while (changedPaths.isEmpty() && !hasOverflowed) {
+            WatchKey key = watchService.take();
+            batchEvent.begin();
+            while (key != null) {
+                final Path directory = sourceTree.getDirectory(key);
+                for (final WatchEvent<?> event: key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // Events were lost. Rebuild anyway, the cache will catch what changed.
+                        sourceTree.markAllDirty();
+                        hasOverflowed = true;
+                        continue;
+                    }
+                    final Path path = (Path) event.context();
+                    if ((directory == null) || SourceTree.isTemporaryFile(path.getFileName().toString())) {
+                        continue;
+                    }
+                    final Path changedPath = directory.resolve(path);
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                        sourceTree.onCreated(changedPath);
+                    } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        sourceTree.onDeleted(changedPath);
+                    }
+                    changedPaths.add(changedPath);
+                }
+                if (!key.reset() && !sourceTree.onKeyInvalid(key)) {
+                    return null;
                 }
+                key = debounceMillis > 0 ? watchService.poll(debounceMillis, TimeUnit.MILLISECONDS) : watchService.poll();
             }
-            display.setInputFiles(mainJavaFilename, javaFiles);
-            display.setCompilationResult(newCoalescedClass, compileSuccess);
-            display.print();
+        }
+        // Only this thread starts generations, so the next one is this batch's.
+        batchEvent.generation = latestGeneration.get() + 1;
+        batchEvent.changedPathCount = changedPaths.size();
+        batchEvent.hasOverflowed = hasOverflowed;
+        batchEvent.commit();
+        return changedPaths;
+    }
+
+    private Exception onSourceChange(final Set<Path> changedPaths) {
+        try {
+            changedPaths.forEach(javaFileCache::invalidate);
+            final long generation = latestGeneration.incrementAndGet();
+            if (currentBuild != null) {
+                // Latest wins. Stale builds stop at their next stage boundary, or through the compiler's
+                // cancellation hook. Never interrupt: it would break the compiler's shared file manager.
+                currentBuild.cancel(false);
+            }
+            currentBuild = buildPool.submit(() -> build(generation));
         } catch (final Exception e) {
             return e;
         }
         return null;
     }
 
+    /**
+     * Builds the given source generation.
+     * <p>
+     * The build goes through scan, parse, coalesce, compile, and publish stages. If a newer generation arrives
+     * while this one is in flight, it is abandoned at the next stage boundary and its result is never published.
+     *
+     * @param generation Source generation to build.
+     */
+    private void build(final long generation) {
+        try {
+            ensureLatest(generation);
+            final String mainClassName = getClassName(mainJavaPath.getFileName().toString());
+            final Map<BuildMetrics.Stage, Long> stageNanos = new EnumMap<>(BuildMetrics.Stage.class);
+            final long buildStart = System.nanoTime();
+            // Scan.
+            final List<Path> paths = scanJavaFiles();
+            long stageStart = lap(stageNanos, BuildMetrics.Stage.SCAN, buildStart);
+            ensureLatest(generation);
+            // Parse.
+            final ParsedFiles parsedFiles;
+            try {
+                parsedFiles = parseJavaFiles(paths);
+            } catch (final InterruptedException e) {
+                throw new CancellationException();
+            }
+            final List<JavaFile> javaFiles = parsedFiles.javaFiles();
+            stageStart = lap(stageNanos, BuildMetrics.Stage.PARSE, stageStart);
+            ensureLatest(generation);
+            // Coalesce.
+            final CoalesceEvent coalesceEvent = new CoalesceEvent();
+            coalesceEvent.begin();
+            final Coalescer coalescer = new Coalescer(javaFiles, mainJavaPath, isTreeShaking, isMinifying, graphicPool,
+                    isStableStamp);
+            final Coalescer.Result coalesced = coalescer.coalesce();
+            final String newCoalescedClass = coalesced == null ? null : coalesced.code();
+            if (coalesceEvent.shouldCommit()) {
+                coalesceEvent.generation = generation;
+                coalesceEvent.fileCount = javaFiles.size();
+                coalesceEvent.charCount = newCoalescedClass == null ? 0 : newCoalescedClass.length();
+                coalesceEvent.droppedTypeCount = coalesced == null ? 0 : coalesced.droppedTypes().size();
+                coalesceEvent.isMinified = isMinifying;
+                coalesceEvent.commit();
+            }
+            stageStart = lap(stageNanos, BuildMetrics.Stage.COALESCE, stageStart);
+            ensureLatest(generation);
+            // Compile. Skipped if the content is the same as the last compiled.
+            final CompileEvent compileEvent = new CompileEvent();
+            compileEvent.begin();
+            final CompileService.Result compileResult;
+            if (coalesced == null) {
+                compileResult = null;
+            } else if (!coalesced.duplicateTypes().isEmpty()) {
+                // Can't compile. The display says why, more clearly than javac would.
+                compileResult = new CompileService.Result(false, 0, 0, false);
+            } else {
+                final CompiledFingerprint lastCompiled = lastCompiledFingerprint;
+                if ((lastCompiled != null) && lastCompiled.fingerprint().equals(coalesced.fingerprint())) {
+                    compileResult = lastCompiled.result().reused();
+                } else {
+                    compileResult = compileService.compile(mainClassName, newCoalescedClass, () -> !isLatest(generation));
+                    lastCompiledFingerprint = new CompiledFingerprint(coalesced.fingerprint(), compileResult);
+                }
+            }
+            final boolean compileSuccess = (compileResult != null) && compileResult.isSuccess();
+            if ((compileResult != null) && compileEvent.shouldCommit()) {
+                compileEvent.generation = generation;
+                compileEvent.className = mainClassName;
+                compileEvent.isSuccess = compileSuccess;
+                compileEvent.diagnosticCount = compileResult.diagnosticCount();
+                compileEvent.isReused = compileResult.isReused();
+                compileEvent.commit();
+            }
+            stageStart = lap(stageNanos, BuildMetrics.Stage.COMPILE, stageStart);
+            ensureLatest(generation);
+            // Publish.
+            final PublishEvent publishEvent = new PublishEvent();
+            publishEvent.generation = generation;
+            publishEvent.begin();
+            synchronized (this) {
+                if (generation < publishedGeneration) {
+                    publishEvent.commit();
+                    return;
+                }
+                publishedGeneration = generation;
+                long outputByteCount = 0;
+                if (compileSuccess) {
+                    final BuildSnapshot snapshot = publisher.publish(newCoalescedClass, coalesced.rawCharCount());
+                    outputByteCount = snapshot.length();
+                    publishEvent.isPublished = true;
+                    publishEvent.version = snapshot.version();
+                    publishEvent.byteCount = outputByteCount;
+                    if ((buildCache != null) && !compileResult.isReused()) {
+                        // Off the build thread, as cancelling a build interrupts it.
+                        buildCache.saveLater(newCoalescedClass, coalesced.fingerprint(), compileResult);
+                    }
+                }
+                final long buildEnd = lap(stageNanos, BuildMetrics.Stage.PUBLISH, stageStart);
+                stageNanos.put(BuildMetrics.Stage.TOTAL, buildEnd - buildStart);
+                long lineCount = 0;
+                long charCount = 0;
+                for (final JavaFile javaFile: javaFiles) {
+                    lineCount += javaFile.getOriginalLineCount();
+                    charCount += javaFile.getCharCount();
+                }
+                metrics.record(new BuildMetrics.Build(stageNanos, javaFiles.size(), lineCount, charCount,
+                        outputByteCount, parsedFiles.hitCount(), parsedFiles.missCount()));
+                display.setInputFiles(mainJavaPath, javaFiles, parsedFiles.unreadablePaths());
+                display.setCacheResult(parsedFiles.hitCount(), parsedFiles.missCount());
+                display.setCompilationResult(newCoalescedClass, compileResult);
+                if (coalesced != null) {
+                    display.setSizeResult(coalesced.rawCharCount(), newCoalescedClass.length());
+                    display.setImportResult(coalesced.imports());
+                    display.setDuplicateTypes(coalesced.duplicateTypes());
+                }
+                if (isTreeShaking && (coalesced != null)) {
+                    display.setShakeResult(coalesced.droppedTypes(), coalesced.droppedCharCount());
+                }
+                display.setBuildMetrics(metrics);
+                display.print();
+            }
+            publishEvent.commit();
+        } catch (final CancellationException e) {
+            // Superseded by a newer generation.
+        } catch (final Exception e) {
+            GLog.severe(e);
+        }
+    }
+
+    /**
+     * Records how long a stage took.
+     *
+     * @param stageNanos Stage timings.
+     * @param stage Stage that just ended.
+     * @param stageStart Time the stage started.
+     * @return Time the stage ended, which is when the next one starts.
+     */
+    private static long lap(final Map<BuildMetrics.Stage, Long> stageNanos, final BuildMetrics.Stage stage,
+            final long stageStart) {
+        final long now = System.nanoTime();
+        stageNanos.put(stage, now - stageStart);
+        return now;
+    }
+
+    /**
+     * Abandons the current build if a newer generation has arrived.
+     *
+     * @param generation Generation being built.
+     * @throws CancellationException If the generation is stale.
+     */
+    private void ensureLatest(final long generation) {
+        if (!isLatest(generation)) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Tests if the given generation is still the one to build.
+     *
+     * @param generation Generation being built.
+     * @return True if no newer generation has arrived.
+     */
+    private boolean isLatest(final long generation) {
+        return (generation == latestGeneration.get()) && !Thread.currentThread().isInterrupted();
+    }
+
     private String getClassName(final String filename) {
         return filename.substring(0, filename.length() - 5);
     }
 
-    private List<JavaFile> gatherJavaFiles(final Path directory) throws IOException {
-        try (final var fileStream = Files.list(directory)) {
-            return fileStream
-                    .filter(path -> {
-                        final String name = path.getFileName().toString();
-                        return Files.isRegularFile(path) && (name.length() > 5) && name.endsWith(".java");
-                    })
-                    .map(path -> GSupplierWithException.getOrNull(() -> JavaFile.from(path)))
-                    .filter(Objects::nonNull)
-                    .toList();
-        }
+    private List<Path> scanJavaFiles() throws IOException {
+        final List<Path> paths = sourceTree.scan();
+        javaFileCache.retainOnly(new HashSet<>(paths));
+        return paths;
     }
 
-    private boolean doesClassCompile(final String className, final String classCode) {
+    /**
+     * Reads and parses the given files in parallel.
+     * <p>
+     * The result keeps the order of the given paths. A file that can't be read is left out without affecting the
+     * rest, and reported for the display to show.
+     *
+     * @param paths Paths of Java files.
+     * @return The parsed Java files, in the same order, with this build's cache hits and misses.
+     * @throws InterruptedException If interrupted while waiting for parsing.
+     */
+    private ParsedFiles parseJavaFiles(final List<Path> paths) throws InterruptedException {
+        final List<Future<JavaFileCache.Lookup>> futures = new ArrayList<>(paths.size());
         try {
-            final Class<?> clazz = InMemoryJavaCompiler.newInstance().compile(className, classCode);
-            return clazz != null;
-        } catch (final Exception e) {
-            return false;
+            for (final Path path: paths) {
+                futures.add(parsePool.submit(() -> javaFileCache.lookup(path)));
+            }
+            final List<JavaFile> javaFiles = new ArrayList<>(paths.size());
+            final List<Path> unreadablePaths = new ArrayList<>();
+            int hitCount = 0;
+            for (int i = 0; i < futures.size(); ++i) {
+                try {
+                    final JavaFileCache.Lookup lookup = futures.get(i).get();
+                    javaFiles.add(lookup.javaFile());
+                    if (lookup.isHit()) {
+                        ++hitCount;
+                    }
+                } catch (final ExecutionException e) {
+                    if (!(e.getCause() instanceof NoSuchFileException)) {
+                        unreadablePaths.add(paths.get(i));
+                    }
+                }
+            }
+            return new ParsedFiles(javaFiles, hitCount, javaFiles.size() - hitCount, unreadablePaths);
+        } finally {
+            // Only does something if we are bailing out.
+            futures.forEach(future -> future.cancel(true));
         }
     }
 }
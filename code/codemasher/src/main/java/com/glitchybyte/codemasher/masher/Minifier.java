@@ -0,0 +1,111 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.masher;
+
+/**
+ * Shrinks Java source without changing what it compiles to.
+ * <p>
+ * Comments are dropped and whitespace is collapsed, token by token. A space is kept only where two words would
+ * otherwise merge, or where two operator characters that were apart in the source could merge, so that
+ * {@code a - -b} never turns into {@code a--b}. Literals, text blocks included, are copied as they are. Lines are
+ * joined until they reach a comfortable length, so the result is still readable in an editor.
+ */
+public final class Minifier {
+
+    /**
+     * Output lines are broken at the first source line break after this many characters.
+     */
+    private static final int LINE_LENGTH = 120;
+
+    /**
+     * Characters that can combine with a neighbor into a different operator.
+     */
+    private static final String OPERATOR_CHARS = "+-*/%&|^!~<>=?:.@";
+
+    private Minifier() {
+        // Hide constructor.
+    }
+
+    /**
+     * Minifies Java source, copying a region of it as is.
+     *
+     * @param code Java source.
+     * @param keptStart Start of the region to copy as is. Must be at the start of a line. -1 if there is none.
+     * @param keptEnd End of the region to copy as is. Must be at the start of a line. -1 if there is none.
+     * @return The minified source.
+     */
+    public static String minify(final String code, final int keptStart, final int keptEnd) {
+        final char[] buffer = code.toCharArray();
+        final StringBuilder sb = new StringBuilder(buffer.length / 2);
+        if (keptStart < 0) {
+            minifyRange(sb, buffer, 0, buffer.length);
+        } else {
+            minifyRange(sb, buffer, 0, keptStart);
+            if ((sb.length() > 0) && (sb.charAt(sb.length() - 1) != '\n')) {
+                sb.append('\n');
+            }
+            sb.append(buffer, keptStart, keptEnd - keptStart);
+            minifyRange(sb, buffer, keptEnd, buffer.length);
+        }
+        if ((sb.length() > 0) && (sb.charAt(sb.length() - 1) != '\n')) {
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void minifyRange(final StringBuilder sb, final char[] buffer, final int start, final int end) {
+        final JavaLexer lexer = new JavaLexer(buffer, start, end);
+        JavaLexer.TokenKind previousKind = null;
+        int previousEnd = start;
+        int lineStart = sb.length();
+        while (lexer.next() != JavaLexer.TokenKind.END) {
+            final JavaLexer.TokenKind kind = lexer.getTokenKind();
+            final int tokenStart = lexer.getTokenStart();
+            if (previousKind != null) {
+                final boolean isApart = tokenStart > previousEnd;
+                if (isApart && ((sb.length() - lineStart) >= LINE_LENGTH) && hasLineBreak(buffer, previousEnd, tokenStart)) {
+                    sb.append('\n');
+                    lineStart = sb.length();
+                } else if (isApart && needsSpace(previousKind, buffer[previousEnd - 1], kind, buffer[tokenStart])) {
+                    sb.append(' ');
+                }
+            }
+            sb.append(buffer, tokenStart, lexer.getTokenEnd() - tokenStart);
+            if (kind == JavaLexer.TokenKind.TEXT_BLOCK) {
+                lineStart = sb.lastIndexOf("\n") + 1;
+            }
+            previousKind = kind;
+            previousEnd = lexer.getTokenEnd();
+        }
+    }
+
+    /**
+     * Tests if two tokens that were apart in the source must stay apart.
+     *
+     * @param previous Kind of the first token.
+     * @param previousChar Last character of the first token.
+     * @param next Kind of the second token.
+     * @param nextChar First character of the second token.
+     * @return True if a space is needed between them.
+     */
+    private static boolean needsSpace(final JavaLexer.TokenKind previous, final char previousChar,
+            final JavaLexer.TokenKind next, final char nextChar) {
+        return (isWord(previous) && isWord(next)) ||
+                ((previous == JavaLexer.TokenKind.SYMBOL) && (next == JavaLexer.TokenKind.SYMBOL) &&
+                        (OPERATOR_CHARS.indexOf(previousChar) >= 0) && (OPERATOR_CHARS.indexOf(nextChar) >= 0));
+    }
+
+    private static boolean isWord(final JavaLexer.TokenKind kind) {
+        return (kind == JavaLexer.TokenKind.IDENTIFIER) || (kind == JavaLexer.TokenKind.NUMBER);
+    }
+
+    private static boolean hasLineBreak(final char[] buffer, final int start, final int end) {
+        for (int i = start; i < end; ++i) {
+            if ((buffer[i] == '\n') || (buffer[i] == '\r')) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,218 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.masher;
+
+import com.sun.nio.file.SensitivityWatchEventModifier;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Watched source directory tree.
+ * <p>
+ * Every directory in the tree is registered with its own watch key, and the Java files in each directory are
+ * remembered. Changes map back to the directory they happened in, so only directories whose listing changed are
+ * listed again when scanning.
+ */
+public final class SourceTree {
+
+    private final Path root;
+    private final Map<WatchKey, Path> directoriesByKey = new HashMap<>();
+    private final Map<Path, List<Path>> javaFilesByDirectory = new HashMap<>();
+    private final Set<Path> dirtyDirectories = new HashSet<>();
+    private WatchService watchService = null;
+
+    /**
+     * Creates a source tree.
+     *
+     * @param root Root directory of the tree.
+     */
+    public SourceTree(final Path root) {
+        this.root = root;
+    }
+
+    /**
+     * Tests if the given filename is an editor temporary or backup file, or a hidden file.
+     *
+     * @param filename Filename.
+     * @return True if it is a temporary file.
+     */
+    public static boolean isTemporaryFile(final String filename) {
+        return filename.startsWith(".") ||
+                filename.startsWith("#") ||
+                filename.endsWith("~") ||
+                filename.endsWith(".tmp") ||
+                filename.endsWith(".swp") ||
+                filename.endsWith(".swx") ||
+                filename.contains("___jb_");
+    }
+
+    /**
+     * Registers the whole tree with the given watch service.
+     *
+     * @param watchService Watch service.
+     * @throws IOException If there is a problem walking the tree.
+     */
+    public synchronized void register(final WatchService watchService) throws IOException {
+        this.watchService = watchService;
+        registerTree(root);
+    }
+
+    /**
+     * Returns the directory watched by the given key.
+     *
+     * @param key Watch key.
+     * @return The directory, or null if the key is unknown.
+     */
+    public synchronized Path getDirectory(final WatchKey key) {
+        return directoriesByKey.get(key);
+    }
+
+    /**
+     * Updates the tree for a created file or directory.
+     *
+     * @param path Created path.
+     * @throws IOException If there is a problem registering a created directory.
+     */
+    public synchronized void onCreated(final Path path) throws IOException {
+        if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            registerTree(path);
+        }
+        dirtyDirectories.add(path.getParent());
+    }
+
+    /**
+     * Updates the tree for a deleted file or directory.
+     *
+     * @param path Deleted path.
+     */
+    public synchronized void onDeleted(final Path path) {
+        forgetTree(path);
+        dirtyDirectories.add(path.getParent());
+    }
+
+    /**
+     * Updates the tree for a watch key that is no longer valid.
+     *
+     * @param key Watch key.
+     * @return True if the tree is still valid, false if the root itself is gone.
+     */
+    public synchronized boolean onKeyInvalid(final WatchKey key) {
+        final Path directory = directoriesByKey.remove(key);
+        if (directory == null) {
+            return true;
+        }
+        if (directory.equals(root)) {
+            return false;
+        }
+        forgetTree(directory);
+        return true;
+    }
+
+    /**
+     * Marks the whole tree as changed. Used when watch events were lost.
+     *
+     * @throws IOException If there is a problem walking the tree.
+     */
+    public synchronized void markAllDirty() throws IOException {
+        registerTree(root);
+        dirtyDirectories.addAll(javaFilesByDirectory.keySet());
+    }
+
+    /**
+     * Returns all Java files in the tree, listing again only directories that changed.
+     *
+     * @return All Java files in the tree, in path order.
+     * @throws IOException If there is a problem listing a directory.
+     */
+    public synchronized List<Path> scan() throws IOException {
+        for (final Iterator<Path> iterator = dirtyDirectories.iterator(); iterator.hasNext();) {
+            final Path directory = iterator.next();
+            if (javaFilesByDirectory.containsKey(directory)) {
+                javaFilesByDirectory.put(directory, listJavaFiles(directory));
+            }
+            iterator.remove();
+        }
+        return javaFilesByDirectory.values().stream()
+                .flatMap(List::stream)
+                .sorted()
+                .toList();
+    }
+
+    /**
+     * Registers a directory and all its subdirectories, and marks them as changed.
+     *
+     * @param start Directory to register.
+     * @throws IOException If there is a problem walking the tree.
+     */
+    private void registerTree(final Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path directory, final BasicFileAttributes attributes)
+                    throws IOException {
+                if (!directory.equals(root) && isTemporaryFile(directory.getFileName().toString())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                final WatchKey key = directory.register(watchService,
+                        new WatchEvent.Kind<?>[] {
+                                StandardWatchEventKinds.ENTRY_CREATE,
+                                StandardWatchEventKinds.ENTRY_DELETE,
+                                StandardWatchEventKinds.ENTRY_MODIFY
+                        },
+                        SensitivityWatchEventModifier.HIGH
+                );
+                directoriesByKey.put(key, directory);
+                javaFilesByDirectory.putIfAbsent(directory, List.of());
+                dirtyDirectories.add(directory);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                // Vanished while walking.
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Forgets a directory and all its subdirectories. Does nothing if the path is not a known directory.
+     *
+     * @param start Directory to forget.
+     */
+    private void forgetTree(final Path start) {
+        javaFilesByDirectory.keySet().removeIf(directory -> directory.startsWith(start));
+        directoriesByKey.entrySet().removeIf(entry -> {
+            if (!entry.getValue().startsWith(start)) {
+                return false;
+            }
+            entry.getKey().cancel();
+            return true;
+        });
+    }
+
+    /**
+     * Lists the Java files directly in the given directory.
+     *
+     * @param directory Directory to list.
+     * @return The Java files in the directory.
+     * @throws IOException If there is a problem listing the directory.
+     */
+    private List<Path> listJavaFiles(final Path directory) throws IOException {
+        try (final var fileStream = Files.list(directory)) {
+            return fileStream
+                    .filter(path -> {
+                        final String name = path.getFileName().toString();
+                        return Files.isRegularFile(path) && (name.length() > 5) && name.endsWith(".java") &&
+                                !isTemporaryFile(name);
+                    })
+                    .toList();
+        } catch (final NoSuchFileException e) {
+            // Deleted since it was marked.
+            return List.of();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.server;
+
+import com.glitchybyte.codemasher.masher.BuildPublisher;
+import com.glitchybyte.codemasher.masher.BuildSnapshot;
+import com.glitchybyte.glib.log.GLog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses every published build once, in the background, so it can be served compressed without compressing
+ * per request.
+ * <p>
+ * Until a build is compressed, or if compressing would not make it smaller, it is served as is.
+ */
+public final class BuildCompressor {
+
+    /**
+     * Compressed variants of one build. A variant is null if it is not smaller than the build.
+     *
+     * @param version Build version.
+     * @param gzip Bytes in gzip format.
+     * @param deflate Bytes in zlib format, which is what HTTP calls deflate.
+     */
+    public record Variants(long version, byte[] gzip, byte[] deflate) {}
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "build-compressor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicReference<Variants> variants = new AtomicReference<>(new Variants(-1, null, null));
+
+    /**
+     * Creates a build compressor that follows the given publisher.
+     *
+     * @param publisher Publisher of the builds to compress.
+     */
+    public BuildCompressor(final BuildPublisher publisher) {
+        // Listen before seeding, so a build published in between isn't missed. It may then arrive twice.
+        publisher.addListener(this::compressLater);
+        compressLater(publisher.get());
+    }
+
+    /**
+     * Returns the compressed variants of the given build.
+     *
+     * @param version Build version.
+     * @return The variants, or null if the build is not compressed yet.
+     */
+    public Variants get(final long version) {
+        final Variants current = variants.get();
+        return current.version() == version ? current : null;
+    }
+
+    private void compressLater(final BuildSnapshot snapshot) {
+        executor.execute(() -> {
+            if (snapshot.version() <= variants.get().version()) {
+                // Already compressed, or something newer.
+                return;
+            }
+            try {
+                final byte[] gzip = smallerOrNull(gzip(snapshot.bytes()), snapshot);
+                final byte[] deflate = smallerOrNull(deflate(snapshot.bytes()), snapshot);
+                variants.set(new Variants(snapshot.version(), gzip, deflate));
+            } catch (final IOException e) {
+                GLog.severe(e);
+            }
+        });
+    }
+
+    private static byte[] smallerOrNull(final byte[] compressed, final BuildSnapshot snapshot) {
+        return compressed.length < snapshot.length() ? compressed : null;
+    }
+
+    private static byte[] gzip(final byte[] bytes) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (final GZIPOutputStream gzip = new GZIPOutputStream(out) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(final byte[] bytes) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (final DeflaterOutputStream deflate = new DeflaterOutputStream(out, deflater)) {
+            deflate.write(bytes);
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+}
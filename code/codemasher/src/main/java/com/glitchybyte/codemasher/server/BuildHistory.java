@@ -0,0 +1,69 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.server;
+
+import com.glitchybyte.codemasher.masher.BuildPublisher;
+import com.glitchybyte.codemasher.masher.BuildSnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ring of recently published builds, bounded by a memory budget.
+ * <p>
+ * The newest builds are kept, as many as fit in the budget. The current build is always kept. Readers never lock;
+ * each publish swaps in a new immutable list.
+ */
+public final class BuildHistory {
+
+    private final long maxBytes;
+    private volatile List<BuildSnapshot> snapshots = List.of();
+
+    /**
+     * Creates a build history that follows the given publisher.
+     *
+     * @param publisher Publisher of the builds to remember.
+     * @param maxBytes Memory budget for the remembered builds.
+     */
+    public BuildHistory(final BuildPublisher publisher, final long maxBytes) {
+        this.maxBytes = maxBytes;
+        // Listen before seeding, so a build published in between isn't missed. It may then arrive twice.
+        publisher.addListener(this::add);
+        add(publisher.get());
+    }
+
+    /**
+     * Returns the remembered build with the given tag.
+     *
+     * @param tag Build tag.
+     * @return The build, or null if it is not remembered.
+     */
+    public BuildSnapshot get(final String tag) {
+        for (final BuildSnapshot snapshot: snapshots) {
+            if (snapshot.tag().equals(tag)) {
+                return snapshot;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void add(final BuildSnapshot snapshot) {
+        final List<BuildSnapshot> current = snapshots;
+        if (!current.isEmpty() && (current.get(0).version() >= snapshot.version())) {
+            // Already have it, or something newer.
+            return;
+        }
+        final List<BuildSnapshot> next = new ArrayList<>(current.size() + 1);
+        next.add(snapshot);
+        long totalBytes = snapshot.length();
+        for (final BuildSnapshot older: current) {
+            totalBytes += older.length();
+            if (totalBytes > maxBytes) {
+                break;
+            }
+            next.add(older);
+        }
+        snapshots = List.copyOf(next);
+    }
+}
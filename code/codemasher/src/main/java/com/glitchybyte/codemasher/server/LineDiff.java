@@ -0,0 +1,223 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Line-level diff between two UTF-8 texts, encoded as a compact patch.
+ * <p>
+ * The patch starts with a header line {@code CMPATCH 1 <base tag> <target tag>}, followed by operations, each on
+ * its own line:
+ * <ul>
+ *     <li>{@code =N} copies the next N lines from the base.</li>
+ *     <li>{@code -N} skips the next N lines from the base.</li>
+ *     <li>{@code +N} inserts the N bytes that follow the operation line.</li>
+ * </ul>
+ * Lines include their line terminator, so applying the patch reproduces the target byte for byte. The tags let a
+ * client check the patch is meant for the text it has before applying it.
+ */
+public final class LineDiff {
+
+    /**
+     * Patch media type.
+     */
+    public static final String MEDIA_TYPE = "text/x-codemasher-patch;charset=UTF-8";
+
+    /**
+     * Patch header, without tags.
+     */
+    private static final String HEADER = "CMPATCH 1";
+
+    private LineDiff() {
+        // Hide constructor.
+    }
+
+    /**
+     * Computes a patch from base to target.
+     *
+     * @param base Base text.
+     * @param baseTag Tag naming the base text. Must not contain whitespace.
+     * @param target Target text.
+     * @param targetTag Tag naming the target text. Must not contain whitespace.
+     * @param maxEdits Maximum number of inserted plus deleted lines to search for.
+     * @return The patch, or null if the texts differ in more than the maximum edits.
+     */
+    public static byte[] diff(final byte[] base, final String baseTag, final byte[] target, final String targetTag,
+            final int maxEdits) {
+        final int[] baseLines = lineStarts(base);
+        final int[] targetLines = lineStarts(target);
+        final int baseCount = baseLines.length - 1;
+        final int targetCount = targetLines.length - 1;
+        // Common prefix and suffix.
+        int prefix = 0;
+        while ((prefix < baseCount) && (prefix < targetCount) &&
+                lineEquals(base, baseLines, prefix, target, targetLines, prefix)) {
+            ++prefix;
+        }
+        int suffix = 0;
+        while ((suffix < (baseCount - prefix)) && (suffix < (targetCount - prefix)) &&
+                lineEquals(base, baseLines, baseCount - 1 - suffix, target, targetLines, targetCount - 1 - suffix)) {
+            ++suffix;
+        }
+        final List<int[]> edits = middleEdits(base, baseLines, prefix, baseCount - suffix,
+                target, targetLines, prefix, targetCount - suffix, maxEdits);
+        if (edits == null) {
+            return null;
+        }
+        // Encode.
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        out.writeBytes((HEADER + " " + baseTag + " " + targetTag + "\n").getBytes(StandardCharsets.UTF_8));
+        int baseLine = 0;
+        int targetLine = 0;
+        for (final int[] edit: edits) {
+            // Edit: base line it applies at, base lines deleted, target line it inserts from, target lines inserted.
+            writeOperation(out, '=', edit[0] - baseLine);
+            writeOperation(out, '-', edit[1]);
+            if (edit[3] > 0) {
+                final int start = targetLines[edit[2]];
+                final int end = targetLines[edit[2] + edit[3]];
+                writeOperation(out, '+', end - start);
+                out.write(target, start, end - start);
+            }
+            baseLine = edit[0] + edit[1];
+            targetLine = edit[2] + edit[3];
+        }
+        writeOperation(out, '=', baseCount - baseLine);
+        assert (targetCount - targetLine) == (baseCount - baseLine);
+        return out.toByteArray();
+    }
+
+    /**
+     * Finds the edits between two line ranges with Myers' algorithm.
+     *
+     * @return Edits in order as {baseLine, deleteCount, targetLine, insertCount}, or null if there are more than
+     * the maximum edits.
+     */
+    private static List<int[]> middleEdits(final byte[] base, final int[] baseLines, final int baseStart, final int baseEnd,
+            final byte[] target, final int[] targetLines, final int targetStart, final int targetEnd, final int maxEdits) {
+        final int n = baseEnd - baseStart;
+        final int m = targetEnd - targetStart;
+        if (Math.abs(n - m) > maxEdits) {
+            // More edits than allowed, no need to search.
+            return null;
+        }
+        final int max = Math.min(n + m, maxEdits);
+        final int offset = max + 1;
+        final int[] v = new int[(2 * max) + 3];
+        final List<int[]> trace = new ArrayList<>();
+        int found = -1;
+        for (int d = 0; d <= max; ++d) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if ((k == -d) || ((k != d) && (v[offset + k - 1] < v[offset + k + 1]))) {
+                    x = v[offset + k + 1];
+                } else {
+                    x = v[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                while ((x < n) && (y < m) &&
+                        lineEquals(base, baseLines, baseStart + x, target, targetLines, targetStart + y)) {
+                    ++x;
+                    ++y;
+                }
+                v[offset + k] = x;
+                if ((x >= n) && (y >= m)) {
+                    found = d;
+                    break;
+                }
+            }
+            trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+            if (found >= 0) {
+                break;
+            }
+        }
+        if (found < 0) {
+            return null;
+        }
+        // Backtrack, collecting single-line edits from the end.
+        final List<int[]> reversed = new ArrayList<>();
+        int x = n;
+        int y = m;
+        for (int d = found; d > 0; --d) {
+            final int[] previous = trace.get(d - 1);
+            final int k = x - y;
+            final int previousK;
+            if ((k == -d) || ((k != d) && (get(previous, d - 1, k - 1) < get(previous, d - 1, k + 1)))) {
+                previousK = k + 1;
+            } else {
+                previousK = k - 1;
+            }
+            final int previousX = get(previous, d - 1, previousK);
+            final int previousY = previousX - previousK;
+            while ((x > previousX) && (y > previousY)) {
+                --x;
+                --y;
+            }
+            if (x == previousX) {
+                // Insertion of target line previousY.
+                reversed.add(new int[] { baseStart + x, 0, targetStart + previousY, 1 });
+            } else {
+                // Deletion of base line previousX.
+                reversed.add(new int[] { baseStart + previousX, 1, targetStart + y, 0 });
+            }
+            x = previousX;
+            y = previousY;
+        }
+        // Merge adjacent edits into hunks.
+        final List<int[]> edits = new ArrayList<>();
+        for (int i = reversed.size() - 1; i >= 0; --i) {
+            final int[] edit = reversed.get(i);
+            final int[] last = edits.isEmpty() ? null : edits.get(edits.size() - 1);
+            if ((last != null) && ((last[0] + last[1]) == edit[0]) && ((last[2] + last[3]) == edit[2])) {
+                last[1] += edit[1];
+                last[3] += edit[3];
+            } else {
+                edits.add(edit);
+            }
+        }
+        return edits;
+    }
+
+    private static int get(final int[] vSlice, final int d, final int k) {
+        return vSlice[k + d];
+    }
+
+    private static int[] lineStarts(final byte[] text) {
+        int count = 0;
+        for (final byte b: text) {
+            if (b == '\n') {
+                ++count;
+            }
+        }
+        final boolean hasUnterminatedLine = (text.length > 0) && (text[text.length - 1] != '\n');
+        final int[] starts = new int[count + (hasUnterminatedLine ? 1 : 0) + 1];
+        int line = 1;
+        for (int i = 0; i < text.length; ++i) {
+            if ((text[i] == '\n') && (line < starts.length)) {
+                starts[line++] = i + 1;
+            }
+        }
+        starts[starts.length - 1] = text.length;
+        return starts;
+    }
+
+    private static boolean lineEquals(final byte[] a, final int[] aLines, final int aLine,
+            final byte[] b, final int[] bLines, final int bLine) {
+        return Arrays.equals(a, aLines[aLine], aLines[aLine + 1], b, bLines[bLine], bLines[bLine + 1]);
+    }
+
+    private static void writeOperation(final ByteArrayOutputStream out, final char operation, final int count) {
+        if (count <= 0) {
+            return;
+        }
+        out.write(operation);
+        out.writeBytes(Integer.toString(count).getBytes(StandardCharsets.US_ASCII));
+        out.write('\n');
+    }
+}
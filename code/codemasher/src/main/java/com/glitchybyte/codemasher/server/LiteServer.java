@@ -0,0 +1,273 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.server;
+
+import com.glitchybyte.codemasher.masher.BuildMetrics;
+import com.glitchybyte.codemasher.masher.BuildPublisher;
+import com.glitchybyte.codemasher.masher.BuildSnapshot;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Lightweight code server on the JDK's built-in HTTP server.
+ * <p>
+ * Serves the same single source, build events, and metrics as the Spring server, without a Spring context. Each request
+ * runs on its own virtual thread. Virtual threads are a preview API in Java 19, so this needs {@code --enable-preview},
+ * which the build passes. Without it, requests run on a cached pool of platform threads, and the display says so.
+ */
+public final class LiteServer {
+
+    /**
+     * Seconds between heartbeats on idle event streams.
+     */
+    private static final long HEARTBEAT_SECONDS = 30;
+
+    /**
+     * How long browsers may cache a CORS preflight response, in seconds.
+     */
+    private static final String PREFLIGHT_MAX_AGE = "1800";
+
+    private final BuildPublisher publisher;
+    private final SingleSourceResponder responder;
+    private final MetricsResponder metricsResponder;
+    private final ExecutorService executor;
+    private final boolean isOnVirtualThreads;
+    private final HttpServer httpServer;
+
+    private LiteServer(final boolean isServingOnLocalhostOnly, final int port, final BuildPublisher publisher,
+            final BuildMetrics metrics) throws IOException {
+        this.publisher = publisher;
+        responder = new SingleSourceResponder(publisher);
+        metricsResponder = new MetricsResponder(metrics);
+        final ExecutorService virtualThreadExecutor = createVirtualThreadExecutor();
+        isOnVirtualThreads = virtualThreadExecutor != null;
+        executor = isOnVirtualThreads ? virtualThreadExecutor : createPlatformThreadExecutor();
+        final InetSocketAddress address = isServingOnLocalhostOnly ?
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port) :
+                new InetSocketAddress(port);
+        httpServer = HttpServer.create(address, 0);
+        httpServer.setExecutor(executor);
+        httpServer.createContext("/cm/events", this::handleEvents);
+        httpServer.createContext("/cm/metrics", this::handleMetrics);
+        httpServer.createContext("/", this::handleSingleSource);
+    }
+
+    /**
+     * Starts a lite server.
+     *
+     * @param isServingOnLocalhostOnly True to bind to the loopback address only.
+     * @param port Port to serve on.
+     * @param publisher Publisher of the builds to serve.
+     * @param metrics Build metrics to serve.
+     * @return The started server.
+     * @throws IOException If the server can't be bound.
+     */
+    public static LiteServer start(final boolean isServingOnLocalhostOnly, final int port, final BuildPublisher publisher,
+            final BuildMetrics metrics) throws IOException {
+        final LiteServer server = new LiteServer(isServingOnLocalhostOnly, port, publisher, metrics);
+        server.httpServer.start();
+        return server;
+    }
+
+    /**
+     * Stops the server, closing open event streams.
+     */
+    public void stop() {
+        httpServer.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns what requests run on.
+     *
+     * @return "virtual threads" or "platform threads".
+     */
+    public String getThreadsName() {
+        return isOnVirtualThreads ? "virtual threads" : "platform threads";
+    }
+
+    /**
+     * Creates a virtual thread per request executor. It is looked up reflectively, as it is a preview API in Java 19
+     * and the JVM refuses it without {@code --enable-preview}.
+     *
+     * @return The executor, or null if the JVM runs without preview features.
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService createPlatformThreadExecutor() {
+        return Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "lite-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void handleSingleSource(final HttpExchange exchange) throws IOException {
+        try {
+            final Headers requestHeaders = exchange.getRequestHeaders();
+            final Headers responseHeaders = exchange.getResponseHeaders();
+            final String method = exchange.getRequestMethod();
+            if (method.equals("OPTIONS")) {
+                addPreflightHeaders(requestHeaders, responseHeaders);
+                exchange.sendResponseHeaders(204, -1);
+                return;
+            }
+            final boolean isHead = method.equals("HEAD");
+            if (!isHead && !method.equals("GET")) {
+                responseHeaders.set("Allow", "GET, HEAD, OPTIONS");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            final SingleSourceResponder.Response response = responder.respond(new SingleSourceResponder.Request(
+                    requestHeaders.getFirst("If-None-Match"),
+                    requestHeaders.getFirst("Accept-Encoding"),
+                    getQueryParameter(exchange, "since")
+            ));
+            addCorsHeaders(responseHeaders);
+            responseHeaders.set("Access-Control-Expose-Headers", String.join(", ", "ETag", "Last-Modified", "IM",
+                    SingleSourceResponder.BUILD_TAG, SingleSourceResponder.DELTA_BASE,
+                    SingleSourceResponder.UNMINIFIED_LENGTH));
+            response.headers().forEach((name, value) -> {
+                // The server writes its own length.
+                if (!name.equals("Content-Length")) {
+                    responseHeaders.set(name, value);
+                }
+            });
+            final byte[] body = response.body();
+            if ((body == null) || isHead) {
+                exchange.sendResponseHeaders(response.status(), -1);
+                return;
+            }
+            exchange.sendResponseHeaders(response.status(), body.length);
+            exchange.getResponseBody().write(body);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleMetrics(final HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            final SingleSourceResponder.Response response = metricsResponder.respond(
+                    getQueryParameter(exchange, "format"),
+                    exchange.getRequestHeaders().getFirst("Accept")
+            );
+            final Headers responseHeaders = exchange.getResponseHeaders();
+            addCorsHeaders(responseHeaders);
+            response.headers().forEach((name, value) -> {
+                if (!name.equals("Content-Length")) {
+                    responseHeaders.set(name, value);
+                }
+            });
+            exchange.sendResponseHeaders(response.status(), response.body().length);
+            exchange.getResponseBody().write(response.body());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleEvents(final HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            final Headers responseHeaders = exchange.getResponseHeaders();
+            addCorsHeaders(responseHeaders);
+            responseHeaders.set("Content-Type", "text/event-stream");
+            responseHeaders.set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, 0);
+            final BlockingQueue<BuildSnapshot> builds = new LinkedBlockingQueue<>();
+            final Consumer<BuildSnapshot> listener = builds::offer;
+            publisher.addListener(listener);
+            try {
+                final OutputStream out = exchange.getResponseBody();
+                BuildSnapshot snapshot = publisher.get();
+                long lastVersion = -1;
+                while (true) {
+                    // A build published while subscribing arrives twice. Only send it once.
+                    if ((snapshot == null) || (snapshot.version() > lastVersion)) {
+                        final String event = snapshot == null ? ":heartbeat\n\n" : buildEvent(snapshot);
+                        out.write(event.getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                        lastVersion = snapshot == null ? lastVersion : snapshot.version();
+                    }
+                    snapshot = builds.poll(HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+                }
+            } catch (final IOException | InterruptedException e) {
+                // Client is gone, or the server is stopping.
+            } finally {
+                publisher.removeListener(listener);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String buildEvent(final BuildSnapshot snapshot) {
+        return "id:" + snapshot.tag() + "\nevent:build\ndata:{\"version\":" + snapshot.version() +
+                ",\"tag\":\"" + snapshot.tag() + "\",\"etag\":\"" + snapshot.eTag().replace("\"", "\\\"") + "\"}\n\n";
+    }
+
+    private static void addCorsHeaders(final Headers responseHeaders) {
+        responseHeaders.set("Access-Control-Allow-Origin", "*");
+    }
+
+    private static void addPreflightHeaders(final Headers requestHeaders, final Headers responseHeaders) {
+        addCorsHeaders(responseHeaders);
+        responseHeaders.set("Access-Control-Allow-Methods", "GET, HEAD");
+        final String requestedHeaders = requestHeaders.getFirst("Access-Control-Request-Headers");
+        if (requestedHeaders != null) {
+            responseHeaders.set("Access-Control-Allow-Headers", requestedHeaders);
+        }
+        responseHeaders.set("Access-Control-Max-Age", PREFLIGHT_MAX_AGE);
+    }
+
+    /**
+     * Returns the first value of a query parameter.
+     *
+     * @param exchange Exchange.
+     * @param name Parameter name.
+     * @return The decoded value, or null if absent.
+     */
+    private static String getQueryParameter(final HttpExchange exchange, final String name) {
+        final String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (final String pair: query.split("&")) {
+            final int equals = pair.indexOf('=');
+            final String key = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+            if (key.equals(name)) {
+                return equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,143 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.server;
+
+import com.glitchybyte.codemasher.masher.BuildMetrics;
+import com.glitchybyte.codemasher.masher.LatencyHistogram;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Answers requests for build metrics, independently of the HTTP server serving them.
+ * <p>
+ * Metrics are sent as Prometheus text by default, and as JSON when asked for with {@code ?format=json} or an
+ * Accept header that prefers it.
+ */
+public final class MetricsResponder {
+
+    private static final String PROMETHEUS_MEDIA_TYPE = "text/plain;version=0.0.4;charset=UTF-8";
+    private static final String JSON_MEDIA_TYPE = "application/json";
+    private static final double[] QUANTILES = { 0.5, 0.95, 0.99 };
+
+    private final BuildMetrics metrics;
+
+    /**
+     * Creates a metrics responder.
+     *
+     * @param metrics Metrics to serve.
+     */
+    public MetricsResponder(final BuildMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Answers a request for the metrics.
+     *
+     * @param format The {@code format} query parameter. May be null.
+     * @param accept Accept header. May be null.
+     * @return The response.
+     */
+    public SingleSourceResponder.Response respond(final String format, final String accept) {
+        final boolean isJson = format == null ?
+                (accept != null) && accept.contains(JSON_MEDIA_TYPE) :
+                format.equalsIgnoreCase("json");
+        final byte[] body = (isJson ? toJson() : toPrometheus()).getBytes(StandardCharsets.UTF_8);
+        final Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Cache-Control", "no-store");
+        headers.put("Content-Type", isJson ? JSON_MEDIA_TYPE : PROMETHEUS_MEDIA_TYPE);
+        headers.put("Content-Length", Integer.toString(body.length));
+        return new SingleSourceResponder.Response(200, headers, body);
+    }
+
+    private String toPrometheus() {
+        final StringBuilder sb = new StringBuilder(2048);
+        sb.append("# HELP codemasher_build_stage_seconds Time each build stage took.\n");
+        sb.append("# TYPE codemasher_build_stage_seconds summary\n");
+        for (final BuildMetrics.Stage stage: BuildMetrics.Stage.values()) {
+            final LatencyHistogram histogram = metrics.getHistogram(stage);
+            final String label = "stage=\"" + stageName(stage) + "\"";
+            for (final double quantile: QUANTILES) {
+                sb.append("codemasher_build_stage_seconds{").append(label).append(",quantile=\"").append(quantile)
+                        .append("\"} ").append(toSeconds(histogram.getPercentile(quantile * 100))).append('\n');
+            }
+            sb.append("codemasher_build_stage_seconds_sum{").append(label).append("} ")
+                    .append(toSeconds(histogram.getSum())).append('\n');
+            sb.append("codemasher_build_stage_seconds_count{").append(label).append("} ")
+                    .append(histogram.getCount()).append('\n');
+        }
+        appendCounter(sb, "codemasher_builds_total", "Completed builds.", metrics.getBuildCount());
+        appendCounter(sb, "codemasher_source_files_total", "Java files over all builds.", metrics.getFileCount());
+        appendCounter(sb, "codemasher_source_lines_total", "Java file lines over all builds.", metrics.getLineCount());
+        appendCounter(sb, "codemasher_source_chars_total", "Java file characters over all builds.", metrics.getCharCount());
+        appendCounter(sb, "codemasher_output_bytes_total", "Published bytes over all builds.", metrics.getOutputByteCount());
+        appendCounter(sb, "codemasher_parse_cache_hits_total", "Java files served from the parse cache.", metrics.getCacheHitCount());
+        appendCounter(sb, "codemasher_parse_cache_misses_total", "Java files parsed.", metrics.getCacheMissCount());
+        return sb.toString();
+    }
+
+    private static void appendCounter(final StringBuilder sb, final String name, final String help, final long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private String toJson() {
+        final StringBuilder sb = new StringBuilder(2048);
+        sb.append("{\"builds\":").append(metrics.getBuildCount());
+        sb.append(",\"totals\":{\"files\":").append(metrics.getFileCount())
+                .append(",\"lines\":").append(metrics.getLineCount())
+                .append(",\"chars\":").append(metrics.getCharCount())
+                .append(",\"outputBytes\":").append(metrics.getOutputByteCount())
+                .append(",\"cacheHits\":").append(metrics.getCacheHitCount())
+                .append(",\"cacheMisses\":").append(metrics.getCacheMissCount())
+                .append('}');
+        final BuildMetrics.Build lastBuild = metrics.getLastBuild();
+        sb.append(",\"last\":");
+        if (lastBuild == null) {
+            sb.append("null");
+        } else {
+            sb.append("{\"stageNanos\":{");
+            boolean isFirst = true;
+            for (final Map.Entry<BuildMetrics.Stage, Long> entry: lastBuild.stageNanos().entrySet()) {
+                sb.append(isFirst ? "" : ",").append('"').append(stageName(entry.getKey())).append("\":")
+                        .append(entry.getValue());
+                isFirst = false;
+            }
+            sb.append("},\"files\":").append(lastBuild.fileCount())
+                    .append(",\"lines\":").append(lastBuild.lineCount())
+                    .append(",\"chars\":").append(lastBuild.charCount())
+                    .append(",\"outputBytes\":").append(lastBuild.outputByteCount())
+                    .append(",\"cacheHits\":").append(lastBuild.cacheHitCount())
+                    .append(",\"cacheMisses\":").append(lastBuild.cacheMissCount())
+                    .append('}');
+        }
+        sb.append(",\"stages\":{");
+        boolean isFirst = true;
+        for (final BuildMetrics.Stage stage: BuildMetrics.Stage.values()) {
+            final LatencyHistogram histogram = metrics.getHistogram(stage);
+            sb.append(isFirst ? "" : ",").append('"').append(stageName(stage)).append("\":{")
+                    .append("\"count\":").append(histogram.getCount())
+                    .append(",\"sumNanos\":").append(histogram.getSum())
+                    .append(",\"p50Nanos\":").append(histogram.getPercentile(50))
+                    .append(",\"p95Nanos\":").append(histogram.getPercentile(95))
+                    .append(",\"p99Nanos\":").append(histogram.getPercentile(99))
+                    .append(",\"maxNanos\":").append(histogram.getMax())
+                    .append('}');
+            isFirst = false;
+        }
+        sb.append("}}");
+        return sb.toString();
+    }
+
+    private static String stageName(final BuildMetrics.Stage stage) {
+        return stage.name().toLowerCase(Locale.ROOT);
+    }
+
+    private static String toSeconds(final long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+}
@@ -3,7 +3,8 @@
 
 package com.glitchybyte.codemasher.server;
 
-import com.glitchybyte.glib.wrapped.GWrappedString;
+import com.glitchybyte.codemasher.masher.BuildMetrics;
+import com.glitchybyte.codemasher.masher.BuildPublisher;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
@@ -15,15 +16,17 @@ public class Server {
 
     public static boolean LOCALHOST_ONLY;
     public static int PORT;
-    public static String MAIN_JAVA_FILENAME;
-    public static GWrappedString COALESCED_CLASS;
+    public static BuildPublisher PUBLISHER;
+    public static SingleSourceResponder RESPONDER;
+    public static MetricsResponder METRICS_RESPONDER;
 
-    public static void start(final boolean isServingOnLocalhostOnly, final int port,
-            final String mainJavaFilename, final GWrappedString coalescedClass) {
+    public static void start(final boolean isServingOnLocalhostOnly, final int port, final BuildPublisher publisher,
+            final BuildMetrics metrics) {
         LOCALHOST_ONLY = isServingOnLocalhostOnly;
         PORT = port;
-        MAIN_JAVA_FILENAME = mainJavaFilename;
-        COALESCED_CLASS = coalescedClass;
+        PUBLISHER = publisher;
+        RESPONDER = new SingleSourceResponder(publisher);
+        METRICS_RESPONDER = new MetricsResponder(metrics);
         final SpringApplication application = new SpringApplication(Server.class);
         application.setAddCommandLineProperties(false);
         application.run();
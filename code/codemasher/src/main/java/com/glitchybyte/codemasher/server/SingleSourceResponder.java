@@ -0,0 +1,463 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.server;
+
+import com.glitchybyte.codemasher.jfr.ServeEvent;
+import com.glitchybyte.codemasher.masher.BuildPublisher;
+import com.glitchybyte.codemasher.masher.BuildSnapshot;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Decides how to answer a request for the single source, independently of the HTTP server serving it.
+ * <p>
+ * Every response names the build it is about with a {@code X-Build-Tag} header. The tag is derived from the
+ * contents, so unlike the version it stays valid across restarts. A client that still has an earlier build can ask
+ * for {@code ?since=<tag>} and receive a {@link LineDiff} patch against it, as a {@code 226 IM Used} response. If
+ * that build is no longer remembered, or the patch would not be smaller, the full build is sent instead. If it is
+ * the current build, the answer is {@code 304 Not Modified}, as with a matching {@code If-None-Match}.
+ * <p>
+ * Full builds are sent gzip or deflate compressed when the client accepts it and {@link BuildCompressor} has
+ * compressed them. Each encoding has its own entity tag.
+ */
+public final class SingleSourceResponder {
+
+    /**
+     * Relevant parts of a request. Absent headers are null.
+     *
+     * @param ifNoneMatch If-None-Match header.
+     * @param acceptEncoding Accept-Encoding header.
+     * @param since Tag of the build the client already has, from the {@code since} query parameter. Its entity tag
+     * is also accepted.
+     */
+    public record Request(String ifNoneMatch, String acceptEncoding, String since) {}
+
+    /**
+     * Response to send.
+     *
+     * @param status HTTP status code.
+     * @param headers Response headers, other than CORS. Not modifiable, as responses are shared between requests.
+     * @param body Response body. Null for no body.
+     */
+    public record Response(int status, Map<String, String> headers, byte[] body) {}
+
+    /**
+     * Patch responses computed against one target build, keyed by base tag. {@link #NO_PATCH} means none is worth
+     * sending.
+     *
+     * @param target Target build.
+     * @param patches Patch responses by base tag.
+     */
+    private record Patches(BuildSnapshot target, Map<String, Response> patches) {}
+
+    /**
+     * Full and not modified responses for one encoding of a build.
+     *
+     * @param full Response with the whole build.
+     * @param notModified Response for a client that already has the build.
+     */
+    private record Representation(Response full, Response notModified) {}
+
+    /**
+     * Responses prepared once per build, as all requests for a build share them.
+     *
+     * @param snapshot Build.
+     * @param variants Compressed variants they were prepared with. Null if not compressed yet.
+     * @param headers Headers common to all responses for the build.
+     * @param identity Responses for the build as is.
+     * @param gzip Responses for the gzip variant. Null if there is none.
+     * @param deflate Responses for the deflate variant. Null if there is none.
+     */
+    private record Prepared(BuildSnapshot snapshot, BuildCompressor.Variants variants, Map<String, String> headers,
+            Representation identity, Representation gzip, Representation deflate) {
+
+        /**
+         * Returns the responses for an encoding, or for the build as is if that encoding has no variant.
+         *
+         * @param encoding Encoding. May be null.
+         * @return The responses.
+         */
+        Representation get(final String encoding) {
+            if ("gzip".equals(encoding) && (gzip != null)) {
+                return gzip;
+            }
+            if ("deflate".equals(encoding) && (deflate != null)) {
+                return deflate;
+            }
+            return identity;
+        }
+    }
+
+    /**
+     * Marks that no patch is worth sending.
+     */
+    private static final Response NO_PATCH = new Response(0, Map.of(), null);
+
+    /**
+     * Maximum number of changed lines a patch is searched for.
+     */
+    private static final int MAX_PATCH_EDITS = 1000;
+
+    /**
+     * Memory budget for recent builds kept to compute patches against.
+     */
+    private static final long HISTORY_MAX_BYTES = 8L * 1024 * 1024;
+
+    /**
+     * Response header with the tag of the build the response is about.
+     */
+    public static final String BUILD_TAG = "X-Build-Tag";
+
+    /**
+     * Response header with the tag of the build a patch applies to.
+     */
+    public static final String DELTA_BASE = "Delta-Base";
+
+    /**
+     * Response header with the number of characters of the build before minifying. Only sent for minified builds.
+     */
+    public static final String UNMINIFIED_LENGTH = "X-Unminified-Length";
+
+    private final BuildPublisher publisher;
+    private final BuildHistory history;
+    private final BuildCompressor compressor;
+    private final AtomicReference<Patches> patches = new AtomicReference<>(new Patches(null, Map.of()));
+    private final AtomicReference<Prepared> prepared = new AtomicReference<>(null);
+
+    /**
+     * Creates a single source responder with its own build history and compressor.
+     *
+     * @param publisher Publisher of the builds to serve.
+     */
+    public SingleSourceResponder(final BuildPublisher publisher) {
+        this(publisher, new BuildHistory(publisher, HISTORY_MAX_BYTES), new BuildCompressor(publisher));
+    }
+
+    /**
+     * Creates a single source responder.
+     *
+     * @param publisher Publisher of the builds to serve.
+     * @param history Recent builds that patches can be made against.
+     * @param compressor Compressor of the builds to serve.
+     */
+    public SingleSourceResponder(final BuildPublisher publisher, final BuildHistory history,
+            final BuildCompressor compressor) {
+        this.publisher = publisher;
+        this.history = history;
+        this.compressor = compressor;
+    }
+
+    /**
+     * Answers a request for the current build.
+     *
+     * @param request Request.
+     * @return The response.
+     */
+    public Response respond(final Request request) {
+        final ServeEvent event = new ServeEvent();
+        event.begin();
+        final BuildSnapshot snapshot = publisher.get();
+        final Response response = respond(request, snapshot);
+        if (event.shouldCommit()) {
+            event.status = response.status();
+            event.version = snapshot.version();
+            event.encoding = response.status() == 226 ? "cmpatch" :
+                    response.headers().getOrDefault("Content-Encoding", "identity");
+            event.byteCount = response.body() == null ? 0 : response.body().length;
+            event.commit();
+        }
+        return response;
+    }
+
+    /**
+     * Answers a request for the given build.
+     *
+     * @param request Request.
+     * @param snapshot Current build.
+     * @return The response.
+     */
+    private Response respond(final Request request, final BuildSnapshot snapshot) {
+        final Prepared prepared = getPrepared(snapshot);
+        final Representation representation = prepared.get(selectEncoding(request.acceptEncoding()));
+        if (isNotModified(snapshot, request)) {
+            return representation.notModified();
+        }
+        final String baseTag = parseTag(request.since());
+        if (baseTag != null) {
+            if (baseTag.equals(snapshot.tag())) {
+                // Polling with since alone. The client already has this build.
+                return representation.notModified();
+            }
+            final Response patch = getPatch(baseTag, prepared);
+            if (patch != NO_PATCH) {
+                return patch;
+            }
+        }
+        return representation.full();
+    }
+
+    /**
+     * Returns the prepared responses for the given build, preparing them if the build or its compressed variants
+     * are new.
+     *
+     * @param snapshot Build.
+     * @return The prepared responses.
+     */
+    private Prepared getPrepared(final BuildSnapshot snapshot) {
+        final Prepared current = prepared.get();
+        final BuildCompressor.Variants variants = compressor.get(snapshot.version());
+        if ((current != null) && (current.snapshot() == snapshot) && (current.variants() == variants)) {
+            return current;
+        }
+        final Prepared fresh = prepare(snapshot, variants);
+        // If another request got here first, either is as good.
+        prepared.compareAndSet(current, fresh);
+        return fresh;
+    }
+
+    private static Prepared prepare(final BuildSnapshot snapshot, final BuildCompressor.Variants variants) {
+        final Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Cache-Control", "no-cache");
+        headers.put("Vary", "Accept-Encoding");
+        headers.put(BUILD_TAG, snapshot.tag());
+        headers.put("Last-Modified", snapshot.lastModified());
+        if (snapshot.rawCharCount() >= 0) {
+            headers.put(UNMINIFIED_LENGTH, Integer.toString(snapshot.rawCharCount()));
+        }
+        final Representation identity = represent(headers, snapshot, null, snapshot.bytes());
+        final Representation gzip = (variants == null) || (variants.gzip() == null) ? null :
+                represent(headers, snapshot, "gzip", variants.gzip());
+        final Representation deflate = (variants == null) || (variants.deflate() == null) ? null :
+                represent(headers, snapshot, "deflate", variants.deflate());
+        return new Prepared(snapshot, variants, Collections.unmodifiableMap(headers), identity, gzip, deflate);
+    }
+
+    /**
+     * Prepares the responses for one encoding of a build.
+     *
+     * @param headers Headers common to all responses for the build.
+     * @param snapshot Build.
+     * @param encoding Encoding. Null for none.
+     * @param body Encoded bytes.
+     * @return The responses.
+     */
+    private static Representation represent(final Map<String, String> headers, final BuildSnapshot snapshot,
+            final String encoding, final byte[] body) {
+        final String eTag = encoding == null ? snapshot.eTag() : encodedETag(snapshot.eTag(), encoding);
+        final Map<String, String> notModifiedHeaders = new LinkedHashMap<>(headers);
+        notModifiedHeaders.put("ETag", eTag);
+        final Map<String, String> fullHeaders = new LinkedHashMap<>(notModifiedHeaders);
+        fullHeaders.put("Content-Type", snapshot.mediaType());
+        if (encoding != null) {
+            fullHeaders.put("Content-Encoding", encoding);
+        }
+        fullHeaders.put("Content-Length", Integer.toString(body.length));
+        return new Representation(
+                new Response(200, Collections.unmodifiableMap(fullHeaders), body),
+                new Response(304, Collections.unmodifiableMap(notModifiedHeaders), null)
+        );
+    }
+
+    /**
+     * Picks the compressed encoding to send. The one with the highest quality wins, gzip on ties.
+     * <p>
+     * All codings are read before choosing. {@code *} only stands for the codings not listed, so it never picks
+     * one the client refused with a quality of zero.
+     *
+     * @param acceptEncoding Accept-Encoding header. May be null.
+     * @return "gzip", "deflate", or null to send the build as is.
+     */
+    private static String selectEncoding(final String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        // Quality of each coding. -1 if not listed.
+        double gzipQuality = -1;
+        double deflateQuality = -1;
+        double anyQuality = -1;
+        for (final String part: acceptEncoding.split(",")) {
+            final String[] fields = part.split(";");
+            final String coding = fields[0].trim();
+            final double quality = getQuality(fields);
+            if (coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip")) {
+                gzipQuality = quality;
+            } else if (coding.equalsIgnoreCase("deflate")) {
+                deflateQuality = quality;
+            } else if (coding.equals("*")) {
+                anyQuality = quality;
+            }
+        }
+        if (gzipQuality < 0) {
+            gzipQuality = anyQuality;
+        }
+        if (deflateQuality < 0) {
+            deflateQuality = anyQuality;
+        }
+        if ((gzipQuality > 0) && (gzipQuality >= deflateQuality)) {
+            return "gzip";
+        }
+        return deflateQuality > 0 ? "deflate" : null;
+    }
+
+    /**
+     * Returns the quality of an Accept-Encoding coding, looking at all its parameters.
+     *
+     * @param fields Coding followed by its parameters.
+     * @return The quality. 1 if not given or invalid.
+     */
+    private static double getQuality(final String[] fields) {
+        for (int i = 1; i < fields.length; ++i) {
+            final String parameter = fields[i].trim();
+            if (parameter.regionMatches(true, 0, "q=", 0, 2)) {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (final NumberFormatException e) {
+                    return 1;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Returns the entity tag of an encoded variant. Variants must have distinct tags because their bytes differ.
+     *
+     * @param eTag Entity tag of the build, quoted.
+     * @param encoding Encoding.
+     * @return The entity tag of the variant, quoted.
+     */
+    private static String encodedETag(final String eTag, final String encoding) {
+        return eTag.substring(0, eTag.length() - 1) + "-" + encoding + "\"";
+    }
+
+    /**
+     * Returns the patch from a base build to the given target build. Patches are computed once per pair, as every
+     * client on the same base asks for the same one.
+     *
+     * @param baseTag Tag of the base build.
+     * @param target Prepared responses for the target build.
+     * @return The patch response, or {@link #NO_PATCH} if the base is gone or the patch is not smaller than the
+     * target.
+     */
+    private Response getPatch(final String baseTag, final Prepared target) {
+        Patches current = patches.get();
+        if (current.target() != target.snapshot()) {
+            final Patches fresh = new Patches(target.snapshot(), new ConcurrentHashMap<>());
+            current = patches.compareAndSet(current, fresh) ? fresh : patches.get();
+            if (current.target() != target.snapshot()) {
+                // A newer build was published meanwhile. Don't cache against this one.
+                return computePatch(baseTag, target);
+            }
+        }
+        return current.patches().computeIfAbsent(baseTag, tag -> computePatch(tag, target));
+    }
+
+    private Response computePatch(final String baseTag, final Prepared target) {
+        final BuildSnapshot base = history.get(baseTag);
+        if (base == null) {
+            return NO_PATCH;
+        }
+        final BuildSnapshot snapshot = target.snapshot();
+        final byte[] patch = LineDiff.diff(base.bytes(), base.tag(), snapshot.bytes(), snapshot.tag(),
+                MAX_PATCH_EDITS);
+        if ((patch == null) || (patch.length >= snapshot.length())) {
+            return NO_PATCH;
+        }
+        // A patch is never encoded, so it carries the tag of the build it produces as is.
+        final Map<String, String> headers = new LinkedHashMap<>(target.headers());
+        headers.put("ETag", snapshot.eTag());
+        headers.put("Content-Type", LineDiff.MEDIA_TYPE);
+        headers.put("Content-Length", Integer.toString(patch.length));
+        headers.put("IM", "cmpatch");
+        headers.put(DELTA_BASE, baseTag);
+        return new Response(226, Collections.unmodifiableMap(headers), patch);
+    }
+
+    /**
+     * Parses a build tag. An entity tag of any encoding of the build, weak or strong, gives the build tag.
+     *
+     * @param tag Tag as a string. May be null.
+     * @return The tag, or null if absent or empty.
+     */
+    private static String parseTag(final String tag) {
+        if (tag == null) {
+            return null;
+        }
+        String parsed = tag.trim();
+        if (parsed.startsWith("W/")) {
+            parsed = parsed.substring(2);
+        }
+        if ((parsed.length() >= 2) && parsed.startsWith("\"") && parsed.endsWith("\"")) {
+            parsed = parsed.substring(1, parsed.length() - 1);
+        }
+        for (final String encoding: new String[] { "-gzip", "-deflate" }) {
+            if (parsed.endsWith(encoding)) {
+                parsed = parsed.substring(0, parsed.length() - encoding.length());
+            }
+        }
+        return parsed.isEmpty() ? null : parsed;
+    }
+
+    /**
+     * Tests if the client already has the given build.
+     * <p>
+     * Only If-None-Match is honored. Builds often come less than a second apart, which is finer than
+     * If-Modified-Since can tell, so Last-Modified is informational only. Any encoding of the build matches.
+     *
+     * @param snapshot Current build.
+     * @param request Request.
+     * @return True if the client already has the build.
+     */
+    private static boolean isNotModified(final BuildSnapshot snapshot, final Request request) {
+        if (request.ifNoneMatch() == null) {
+            return false;
+        }
+        return matchesETag(request.ifNoneMatch(), snapshot.eTag()) ||
+                matchesETag(request.ifNoneMatch(), encodedETag(snapshot.eTag(), "gzip")) ||
+                matchesETag(request.ifNoneMatch(), encodedETag(snapshot.eTag(), "deflate"));
+    }
+
+    /**
+     * Tests if an If-None-Match header matches an entity tag. Uses weak comparison, as the header requires.
+     *
+     * @param ifNoneMatch If-None-Match header.
+     * @param eTag Entity tag.
+     * @return True if it matches.
+     */
+    private static boolean matchesETag(final String ifNoneMatch, final String eTag) {
+        int pos = 0;
+        final int length = ifNoneMatch.length();
+        while (pos < length) {
+            while ((pos < length) && ((ifNoneMatch.charAt(pos) == ' ') || (ifNoneMatch.charAt(pos) == ','))) {
+                ++pos;
+            }
+            if (pos == length) {
+                break;
+            }
+            if (ifNoneMatch.charAt(pos) == '*') {
+                return true;
+            }
+            if (ifNoneMatch.startsWith("W/", pos)) {
+                pos += 2;
+            }
+            final int end;
+            if ((pos < length) && (ifNoneMatch.charAt(pos) == '"')) {
+                final int closing = ifNoneMatch.indexOf('"', pos + 1);
+                end = closing < 0 ? length : closing + 1;
+            } else {
+                final int comma = ifNoneMatch.indexOf(',', pos);
+                end = comma < 0 ? length : comma;
+            }
+            if (ifNoneMatch.regionMatches(pos, eTag, 0, eTag.length()) && ((end - pos) == eTag.length())) {
+                return true;
+            }
+            pos = end;
+        }
+        return false;
+    }
+}
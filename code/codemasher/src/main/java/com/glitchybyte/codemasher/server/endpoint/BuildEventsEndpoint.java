@@ -0,0 +1,196 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.server.endpoint;
+
+import com.glitchybyte.codemasher.masher.BuildSnapshot;
+import com.glitchybyte.codemasher.server.Server;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pushes build notifications to clients with Server-Sent Events.
+ * <p>
+ * Every client gets a "build" event with the current version as soon as it connects, and then one for every
+ * published build. Idle connections hold no thread. Each client is sent to on its own, so a slow client never holds
+ * up the masher or the other clients; it just skips to the latest build once it catches up. A periodic heartbeat
+ * weeds out dead clients, and drops those stuck on a send.
+ */
+@RestController
+public class BuildEventsEndpoint {
+
+    private static final Logger log = LoggerFactory.getLogger(BuildEventsEndpoint.class);
+
+    private static final long HEARTBEAT_SECONDS = 30;
+
+    /**
+     * Time a send can take before the client is dropped.
+     */
+    private static final long SEND_TIMEOUT_MILLIS = 10_000;
+
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    private final ExecutorService sender = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "build-events");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor();
+
+    public BuildEventsEndpoint() {
+        Server.PUBLISHER.addListener(snapshot -> clients.forEach(client -> client.offer(snapshot)));
+        heartbeat.scheduleAtFixedRate(this::heartbeat, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @CrossOrigin(origins = "*")
+    @GetMapping(value = "/cm/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamBuildEvents() {
+        final SseEmitter emitter = new SseEmitter(0L);
+        final Client client = new Client(emitter);
+        emitter.onCompletion(() -> clients.remove(client));
+        emitter.onTimeout(() -> clients.remove(client));
+        emitter.onError(e -> clients.remove(client));
+        clients.add(client);
+        client.offer(Server.PUBLISHER.get());
+        return emitter;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeat.shutdownNow();
+        sender.shutdownNow();
+        clients.forEach(client -> client.emitter.complete());
+        clients.clear();
+    }
+
+    private void heartbeat() {
+        final long now = System.currentTimeMillis();
+        for (final Client client: clients) {
+            if (client.isStuck(now)) {
+                log.warn("Dropping build events client stuck on a send.");
+                clients.remove(client);
+                client.emitter.complete();
+            } else {
+                client.heartbeat();
+            }
+        }
+    }
+
+    private static SseEmitter.SseEventBuilder buildEvent(final BuildSnapshot snapshot) {
+        return SseEmitter.event()
+                .id(snapshot.tag())
+                .name("build")
+                .data("{\"version\":" + snapshot.version() + ",\"tag\":\"" + snapshot.tag() +
+                        "\",\"etag\":\"" + snapshot.eTag().replace("\"", "\\\"") + "\"}");
+    }
+
+    /**
+     * A connected client. Events are sent one at a time on the sender pool. Only the latest build waits to be sent.
+     */
+    private final class Client {
+
+        private final SseEmitter emitter;
+        private final AtomicReference<BuildSnapshot> pendingBuild = new AtomicReference<>(null);
+        private final AtomicBoolean isHeartbeatPending = new AtomicBoolean(false);
+        private final AtomicBoolean isScheduled = new AtomicBoolean(false);
+        private volatile long sendStartMillis = 0;
+        private long lastSentVersion = -1;
+
+        private Client(final SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        /**
+         * Queues a build to be sent, replacing an older one still waiting.
+         *
+         * @param snapshot Build.
+         */
+        private void offer(final BuildSnapshot snapshot) {
+            pendingBuild.accumulateAndGet(snapshot, (current, next) ->
+                    (current == null) || (next.version() > current.version()) ? next : current);
+            schedule();
+        }
+
+        /**
+         * Queues a heartbeat to be sent, unless a build is already waiting.
+         */
+        private void heartbeat() {
+            isHeartbeatPending.set(true);
+            schedule();
+        }
+
+        /**
+         * Tests if a send has been going on for too long.
+         *
+         * @param now Current time in milliseconds.
+         * @return True if the client is stuck.
+         */
+        private boolean isStuck(final long now) {
+            final long start = sendStartMillis;
+            return (start != 0) && ((now - start) > SEND_TIMEOUT_MILLIS);
+        }
+
+        private void schedule() {
+            if (isScheduled.compareAndSet(false, true)) {
+                try {
+                    sender.execute(this::drain);
+                } catch (final RuntimeException e) {
+                    // Shutting down.
+                    isScheduled.set(false);
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                BuildSnapshot snapshot;
+                while ((snapshot = pendingBuild.getAndSet(null)) != null) {
+                    isHeartbeatPending.set(false);
+                    if (snapshot.version() > lastSentVersion) {
+                        // Published while connecting may arrive twice. Only send it once.
+                        send(buildEvent(snapshot));
+                        lastSentVersion = snapshot.version();
+                    }
+                }
+                if (isHeartbeatPending.getAndSet(false)) {
+                    send(SseEmitter.event().comment("heartbeat"));
+                }
+            } catch (final IOException | IllegalStateException e) {
+                // Client is gone.
+                clients.remove(this);
+                emitter.completeWithError(e);
+                return;
+            } finally {
+                isScheduled.set(false);
+            }
+            if ((pendingBuild.get() != null) || isHeartbeatPending.get()) {
+                // Queued after we looked.
+                schedule();
+            }
+        }
+
+        private void send(final SseEmitter.SseEventBuilder event) throws IOException {
+            sendStartMillis = System.currentTimeMillis();
+            try {
+                emitter.send(event);
+            } finally {
+                sendStartMillis = 0;
+            }
+        }
+    }
+}
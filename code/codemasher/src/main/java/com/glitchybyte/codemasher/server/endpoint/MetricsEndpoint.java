@@ -0,0 +1,33 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.server.endpoint;
+
+import com.glitchybyte.codemasher.server.Server;
+import com.glitchybyte.codemasher.server.SingleSourceResponder;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+public class MetricsEndpoint {
+
+    private static final Logger log = LoggerFactory.getLogger(MetricsEndpoint.class);
+
+    @CrossOrigin(origins = "*")
+    @GetMapping("/cm/metrics")
+    public ResponseEntity<byte[]> serveMetrics(final HttpServletRequest request) {
+        final SingleSourceResponder.Response response = Server.METRICS_RESPONDER.respond(
+                request.getParameter("format"),
+                request.getHeader(HttpHeaders.ACCEPT)
+        );
+        final ResponseEntity.BodyBuilder builder = ResponseEntity.status(response.status());
+        response.headers().forEach((name, value) -> builder.header(name, value));
+        return builder.body(response.body());
+    }
+}
@@ -4,25 +4,18 @@
 package com.glitchybyte.codemasher.server.endpoint;
 
 import com.glitchybyte.codemasher.server.Server;
+import com.glitchybyte.codemasher.server.SingleSourceResponder;
 import com.glitchybyte.codemasher.server.configuration.AsyncConfiguration;
-import com.glitchybyte.gspring.GSpringUtils;
 import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.http.CacheControl;
-import org.springframework.http.MediaType;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.BufferedWriter;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.nio.charset.StandardCharsets;
-import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 
 @RestController
@@ -30,32 +23,18 @@ public class ServeSingleSourceEndpoint {
 
     private static final Logger log = LoggerFactory.getLogger(ServeSingleSourceEndpoint.class);
 
-    private MediaType sourceMediaType = null;
-
-    @CrossOrigin(origins = "*")
+    @CrossOrigin(origins = "*", exposedHeaders = { HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED, "IM",
+            SingleSourceResponder.BUILD_TAG, SingleSourceResponder.DELTA_BASE, SingleSourceResponder.UNMINIFIED_LENGTH })
     @Async(AsyncConfiguration.TASK_EXECUTOR_CONTROLLER)
     @GetMapping("/**")
-    @SuppressWarnings("SynchronizeOnNonFinalField")
-    public CompletableFuture<ResponseEntity<StreamingResponseBody>> serveSingleSource(final HttpServletRequest request) {
-        final String code;
-        synchronized (Server.COALESCED_CLASS) {
-            code = Objects.requireNonNullElse(Server.COALESCED_CLASS.value, "// No code :(\n");
-        }
-        synchronized (this) {
-            if (sourceMediaType == null) {
-                sourceMediaType = GSpringUtils.getMediaType(Server.MAIN_JAVA_FILENAME, code);
-            }
-        }
-        final StreamingResponseBody streamingResponseBody = outputStream -> {
-            try (final Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8))) {
-                writer.append(code);
-            }
-        };
-        return CompletableFuture.completedFuture(
-                ResponseEntity.ok()
-                        .cacheControl(CacheControl.noCache())
-                        .contentType(sourceMediaType)
-                        .body(streamingResponseBody)
-        );
+    public CompletableFuture<ResponseEntity<byte[]>> serveSingleSource(final HttpServletRequest request) {
+        final SingleSourceResponder.Response response = Server.RESPONDER.respond(new SingleSourceResponder.Request(
+                request.getHeader(HttpHeaders.IF_NONE_MATCH),
+                request.getHeader(HttpHeaders.ACCEPT_ENCODING),
+                request.getParameter("since")
+        ));
+        final ResponseEntity.BodyBuilder builder = ResponseEntity.status(response.status());
+        response.headers().forEach((name, value) -> builder.header(name, value));
+        return CompletableFuture.completedFuture(builder.body(response.body()));
     }
 }
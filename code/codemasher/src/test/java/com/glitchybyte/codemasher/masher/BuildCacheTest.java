@@ -0,0 +1,76 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.masher;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class BuildCacheTest {
+
+    private static final CompileService.Result RESULT = new CompileService.Result(true, 2, 0, false);
+
+    private Path directory;
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("build-cache-test");
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException {
+        try (final Stream<Path> paths = Files.walk(directory)) {
+            for (final Path path: paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private BuildCache cache(final String mainJavaFilename) {
+        return new BuildCache(directory.resolve("cache"), directory, mainJavaFilename);
+    }
+
+    @Test
+    void savedBuildLoads() throws IOException {
+        try (final BuildCache cache = cache("Main.java")) {
+            cache.save("class Main {}\n", "fingerprint", RESULT);
+            final BuildCache.CachedBuild build = cache.load();
+            assertNotNull(build);
+            assertEquals("class Main {}\n", build.code());
+            assertEquals("fingerprint", build.fingerprint());
+            assertEquals(2, build.result().diagnosticCount());
+        }
+    }
+
+    @Test
+    void latestBackgroundSaveWins() {
+        final BuildCache cache = cache("Main.java");
+        for (int i = 0; i < 20; ++i) {
+            cache.saveLater("class Main { int x = " + i + "; }\n", "fingerprint" + i, RESULT);
+        }
+        // Closing waits for the pending save.
+        cache.close();
+        final BuildCache.CachedBuild build = cache("Main.java").load();
+        assertNotNull(build);
+        assertEquals("fingerprint19", build.fingerprint());
+    }
+
+    @Test
+    void otherMainFileIsIgnored() throws IOException {
+        try (final BuildCache cache = cache("Main.java")) {
+            cache.save("class Main {}\n", "fingerprint", RESULT);
+        }
+        assertNull(cache("Other.java").load());
+    }
+}
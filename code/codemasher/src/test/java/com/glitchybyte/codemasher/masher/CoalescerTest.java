@@ -0,0 +1,142 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.masher;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CoalescerTest {
+
+    private static final Path ROOT = Path.of("bot");
+    private static final Path MAIN_PATH = ROOT.resolve("Player.java");
+
+    private GraphicPool graphicPool;
+
+    @BeforeEach
+    void createGraphicPool() {
+        graphicPool = Coalescer.createStampGraphicPool();
+    }
+
+    @AfterEach
+    void closeGraphicPool() {
+        graphicPool.close();
+    }
+
+    private static JavaFile file(final String path, final String code) {
+        return JavaFile.from(ROOT.resolve(path), code.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<JavaFile> files() {
+        return List.of(
+                file("Player.java", """
+                        import java.util.List;
+
+                        class Player {
+                            // [[CM::CODE]]
+                            public static void main(String[] args) {
+                                List<Node> nodes = List.of(new Node());
+                                System.out.println(nodes.size() - -1);
+                            }
+                        }
+                        """),
+                file("Node.java", """
+                        class Node {
+                            int value = 1;
+                        }
+                        """)
+        );
+    }
+
+    private Coalescer.Result coalesce(final boolean isTreeShaking, final boolean isMinifying) {
+        final Coalescer.Result result = new Coalescer(files(), MAIN_PATH, isTreeShaking, isMinifying, graphicPool,
+                true).coalesce();
+        assertNotNull(result);
+        return result;
+    }
+
+    @Test
+    void fingerprintIsStable() {
+        assertEquals(coalesce(false, false).fingerprint(), coalesce(false, false).fingerprint());
+        assertEquals(coalesce(true, true).fingerprint(), coalesce(true, true).fingerprint());
+    }
+
+    @Test
+    void fingerprintDependsOnModes() {
+        final String raw = coalesce(false, false).fingerprint();
+        // A minified class must never reuse the compilation verdict of a raw one.
+        assertNotEquals(raw, coalesce(false, true).fingerprint());
+        assertNotEquals(raw, coalesce(true, false).fingerprint());
+        assertNotEquals(coalesce(false, true).fingerprint(), coalesce(true, true).fingerprint());
+    }
+
+    private static boolean compiles(final String code) throws IOException {
+        try (final CompileService compileService = new CompileService()) {
+            return compileService.compile("Player", code, () -> false).isSuccess();
+        }
+    }
+
+    @Test
+    void importShadowedBySourceIsOnlyReported() throws IOException {
+        final List<JavaFile> javaFiles = List.of(
+                file("Player.java", """
+                        import java.awt.Point;
+
+                        class Player {
+                            // [[CM::CODE]]
+                            Point point = new Point(1, 2);
+                        }
+                        """),
+                file("Point.java", """
+                        class Point {
+                            Point(int x, int y) {}
+                        }
+                        """)
+        );
+        final Coalescer.Result result = new Coalescer(javaFiles, MAIN_PATH, false, false, graphicPool, true)
+                .coalesce();
+        assertNotNull(result);
+        assertEquals(List.of(), result.imports().collisions());
+        assertEquals(List.of("Point: java.awt.Point"), result.imports().shadowed());
+        assertTrue(compiles(result.code()), result.code());
+    }
+
+    @Test
+    void sameSimpleNameImportedTwiceCollides() throws IOException {
+        final List<JavaFile> javaFiles = List.of(
+                file("Player.java", """
+                        import java.util.List;
+
+                        class Player {
+                            // [[CM::CODE]]
+                            List<Integer> values;
+                        }
+                        """),
+                file("Widget.java", """
+                        import java.awt.List;
+
+                        class Widget {
+                            List list;
+                        }
+                        """)
+        );
+        final Coalescer.Result result = new Coalescer(javaFiles, MAIN_PATH, false, false, graphicPool, true)
+                .coalesce();
+        assertNotNull(result);
+        assertEquals(List.of("List: java.awt.List, java.util.List"), result.imports().collisions());
+        assertEquals(List.of(), result.imports().shadowed());
+        assertFalse(compiles(result.code()), result.code());
+    }
+}
@@ -0,0 +1,61 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.masher;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompileServiceTest {
+
+    private CompileService compileService;
+
+    @BeforeEach
+    void createCompileService() {
+        compileService = new CompileService();
+    }
+
+    @AfterEach
+    void closeCompileService() throws IOException {
+        compileService.close();
+    }
+
+    @Test
+    void platformClassesCompile() {
+        assertTrue(compileService.compile("Player", """
+                import java.util.*;
+
+                class Player {
+                    List<Integer> values = new ArrayList<>();
+                }
+                """, () -> false).isSuccess());
+    }
+
+    @Test
+    void ownClassPathIsNotVisible() {
+        // On our own class path, but not on a judge's.
+        final CompileService.Result result = compileService.compile("Player", """
+                import com.glitchybyte.codemasher.masher.CompileService;
+
+                class Player {
+                    CompileService service;
+                }
+                """, () -> false);
+        assertFalse(result.isSuccess());
+        assertTrue(result.diagnosticCount() > 0);
+    }
+
+    @Test
+    void cancelledCompilationThrowsAndServiceStillWorks() {
+        assertThrows(CancellationException.class, () -> compileService.compile("Player", "class Player {}", () -> true));
+        assertTrue(compileService.compile("Player", "class Player {}", () -> false).isSuccess());
+    }
+}
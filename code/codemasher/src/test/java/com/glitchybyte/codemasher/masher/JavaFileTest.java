@@ -0,0 +1,150 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.masher;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JavaFileTest {
+
+    private static JavaFile parse(final String name, final String code) {
+        return JavaFile.from(Path.of(name), code.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> typeNames(final JavaFile javaFile) {
+        return javaFile.getTypes().stream().map(JavaFile.TypeDeclaration::name).toList();
+    }
+
+    private static String content(final JavaFile javaFile) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < javaFile.getContentLineCount(); ++i) {
+            javaFile.appendContentLine(sb, i);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void packageImportsAndType() {
+        final JavaFile javaFile = parse("Player.java", """
+                package game.core;
+
+                import java.util.List;
+                import static java.lang.Math.max;
+
+                public class Player {
+                    List<Integer> scores;
+                }
+                """);
+        assertEquals("Player.java", javaFile.name);
+        assertEquals("game.core", javaFile.getPackageName());
+        assertEquals(List.of("import java.util.List;", "import static java.lang.Math.max;"), javaFile.getImports());
+        assertEquals(List.of("Player"), typeNames(javaFile));
+        assertEquals(JavaFileType.CLASS, javaFile.getType());
+        assertTrue(content(javaFile).startsWith("public class Player {"));
+    }
+
+    @Test
+    void defaultPackageAndNoTypes() {
+        final JavaFile javaFile = parse("Empty.java", "// Nothing here.\n");
+        assertEquals("", javaFile.getPackageName());
+        assertTrue(javaFile.getImports().isEmpty());
+        assertNull(javaFile.getType());
+    }
+
+    @Test
+    void commentsDontDeclareAnything() {
+        final JavaFile javaFile = parse("A.java", """
+                // import not.Real;
+                /* package not.real; class Fake { */
+                class A {
+                    // class Inner {
+                    /* } } */
+                }
+                """);
+        assertEquals("", javaFile.getPackageName());
+        assertTrue(javaFile.getImports().isEmpty());
+        assertEquals(List.of("A"), typeNames(javaFile));
+    }
+
+    @Test
+    void bracesInLiteralsDontCloseTypes() {
+        final JavaFile javaFile = parse("A.java", """
+                class A {
+                    String open = "{ class Fake {";
+                    char close = '}';
+                    String block = \"""
+                        } interface Fake { \\\""" }
+                        \""";
+                    double hex = 0x1E+2;
+                    double exponent = 1e+2;
+                }
+                enum B { X }
+                """);
+        assertEquals(List.of("A", "B"), typeNames(javaFile));
+        assertEquals(JavaFileType.ENUM, javaFile.getTypes().get(1).type());
+    }
+
+    @Test
+    void allKindsOfTypes() {
+        final JavaFile javaFile = parse("A.java", """
+                @Deprecated
+                public final class A {}
+                interface B {}
+                enum C { X }
+                record D(int x) {}
+                @interface E {}
+                """);
+        assertEquals(List.of("A", "B", "C", "D", "E"), typeNames(javaFile));
+        assertEquals(List.of(JavaFileType.CLASS, JavaFileType.INTERFACE, JavaFileType.ENUM, JavaFileType.RECORD,
+                JavaFileType.ANNOTATION), javaFile.getTypes().stream().map(JavaFile.TypeDeclaration::type).toList());
+        // Annotations are part of the declaration.
+        final JavaFile.TypeDeclaration a = javaFile.getTypes().get(0);
+        final StringBuilder sb = new StringBuilder();
+        javaFile.appendRange(sb, a.start(), a.end());
+        assertEquals("@Deprecated\npublic final class A {}", sb.toString());
+    }
+
+    @Test
+    void identifiersSkipLiteralsAndComments() {
+        final JavaFile javaFile = parse("A.java", """
+                import java.util.Map;
+                class A {
+                    // Hidden
+                    String s = "Quoted";
+                    char c = 'x';
+                    String t = \"""
+                        Blocked
+                        \""";
+                    int n = 0xCAFE;
+                }
+                """);
+        final Set<String> identifiers = javaFile.getIdentifiers();
+        assertTrue(identifiers.containsAll(Set.of("class", "A", "String", "s", "char", "c", "t", "int", "n")));
+        assertFalse(identifiers.contains("Hidden"));
+        assertFalse(identifiers.contains("Quoted"));
+        assertFalse(identifiers.contains("x"));
+        assertFalse(identifiers.contains("Blocked"));
+        assertFalse(identifiers.contains("CAFE"));
+        // Imports are not part of the code.
+        assertFalse(identifiers.contains("Map"));
+    }
+
+    @Test
+    void windowsLineEnds() {
+        final JavaFile javaFile = parse("A.java", "import a.B;\r\nclass A {\r\n}\r\n");
+        assertEquals(List.of("import a.B;"), javaFile.getImports());
+        assertEquals("class A {\n}\n", content(javaFile));
+        assertEquals(3, javaFile.getOriginalLineCount());
+    }
+}
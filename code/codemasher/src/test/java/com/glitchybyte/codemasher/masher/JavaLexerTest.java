@@ -0,0 +1,113 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.masher;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class JavaLexerTest {
+
+    /**
+     * Tokenizes the given code into "KIND text" strings.
+     */
+    private static List<String> tokens(final String code) {
+        final char[] buffer = code.toCharArray();
+        final JavaLexer lexer = new JavaLexer(buffer, 0, buffer.length);
+        final List<String> result = new ArrayList<>();
+        while (lexer.next() != JavaLexer.TokenKind.END) {
+            result.add(lexer.getTokenKind() + " " + lexer.getTokenText());
+        }
+        return result;
+    }
+
+    @Test
+    void skipsLineAndBlockComments() {
+        assertEquals(List.of("IDENTIFIER a", "IDENTIFIER b", "IDENTIFIER c"),
+                tokens("a // class X {\nb /* } \" ' */ c"));
+    }
+
+    @Test
+    void unterminatedBlockCommentEndsInput() {
+        assertEquals(List.of("IDENTIFIER a"), tokens("a /* never closed"));
+    }
+
+    @Test
+    void stringsAreSingleTokens() {
+        assertEquals(List.of("STRING \"{ // \\\" }\"", "SYMBOL ;"), tokens("\"{ // \\\" }\";"));
+    }
+
+    @Test
+    void unterminatedStringStopsAtEndOfLine() {
+        assertEquals(List.of("STRING \"abc", "IDENTIFIER x"), tokens("\"abc\nx"));
+    }
+
+    @Test
+    void characterLiteralsAreSingleTokens() {
+        assertEquals(List.of("CHARACTER '{'", "CHARACTER '\\''", "CHARACTER '\"'"), tokens("'{' '\\'' '\"'"));
+    }
+
+    @Test
+    void textBlocksAreSingleTokens() {
+        final String textBlock = "\"\"\"\n    class \"quoted\" \\\"\"\" }\n    \"\"\"";
+        assertEquals(List.of("TEXT_BLOCK " + textBlock, "SYMBOL ;"), tokens(textBlock + ";"));
+    }
+
+    @Test
+    void emptyStringIsNotTextBlock() {
+        assertEquals(List.of("STRING \"\"", "SYMBOL +", "IDENTIFIER a"), tokens("\"\" + a"));
+    }
+
+    @Test
+    void decimalNumbers() {
+        assertEquals(List.of("NUMBER 1_000", "NUMBER 3.14f", "NUMBER .5", "NUMBER 10L"), tokens("1_000 3.14f .5 10L"));
+    }
+
+    @Test
+    void decimalExponentTakesSign() {
+        assertEquals(List.of("NUMBER 1e+2", "NUMBER 1.5E-3d"), tokens("1e+2 1.5E-3d"));
+    }
+
+    @Test
+    void signAfterNumberIsOperator() {
+        assertEquals(List.of("NUMBER 1", "SYMBOL +", "NUMBER 2", "SYMBOL -", "IDENTIFIER a"), tokens("1+2-a"));
+    }
+
+    @Test
+    void hexDigitEIsNotExponent() {
+        assertEquals(List.of("NUMBER 0x1E", "SYMBOL +", "NUMBER 2"), tokens("0x1E+2"));
+        assertEquals(List.of("NUMBER 0XFe", "SYMBOL -", "NUMBER 1"), tokens("0XFe-1"));
+    }
+
+    @Test
+    void hexBinaryExponentTakesSign() {
+        assertEquals(List.of("NUMBER 0x1.8p+1", "NUMBER 0X1P-2f"), tokens("0x1.8p+1 0X1P-2f"));
+    }
+
+    @Test
+    void decimalPIsNotExponent() {
+        assertEquals(List.of("NUMBER 1", "SYMBOL +", "NUMBER 2"), tokens("1+2"));
+        assertEquals(List.of("NUMBER 0b1010", "SYMBOL -", "NUMBER 1"), tokens("0b1010-1"));
+    }
+
+    @Test
+    void operatorsAreSingleCharacters() {
+        assertEquals(List.of("SYMBOL >", "SYMBOL >", "SYMBOL =", "IDENTIFIER x"), tokens(">>=x"));
+    }
+
+    @Test
+    void tokenOffsets() {
+        final char[] buffer = "  ab  c".toCharArray();
+        final JavaLexer lexer = new JavaLexer(buffer, 0, buffer.length);
+        lexer.next();
+        assertEquals(2, lexer.getTokenStart());
+        assertEquals(4, lexer.getTokenEnd());
+        lexer.next();
+        assertEquals(6, lexer.getTokenStart());
+        assertEquals(JavaLexer.TokenKind.END, lexer.next());
+    }
+}
@@ -0,0 +1,149 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.masher;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MinifierTest {
+
+    private CompileService compileService;
+
+    @BeforeEach
+    void createCompileService() {
+        compileService = new CompileService();
+    }
+
+    @AfterEach
+    void closeCompileService() throws IOException {
+        compileService.close();
+    }
+
+    /**
+     * Minifies a class named Player and checks that the result still compiles.
+     */
+    private String minify(final String code, final int keptStart, final int keptEnd) {
+        assertTrue(compileService.compile("Player", code, () -> false).isSuccess(), "Source must compile.");
+        final String minified = Minifier.minify(code, keptStart, keptEnd);
+        assertTrue(compileService.compile("Player", minified, () -> false).isSuccess(),
+                "Minified source must compile:\n" + minified);
+        return minified;
+    }
+
+    private String minify(final String code) {
+        return minify(code, -1, -1);
+    }
+
+    @Test
+    void operatorsThatCouldMergeStayApart() {
+        final String minified = minify("""
+                class Player {
+                    int f(int a, int b) {
+                        int c = a - -b;
+                        int d = a + +b;
+                        int e = a - --b;
+                        int g = a++ + b;
+                        boolean h = a < -b;
+                        return c + d + e + g + (h ? 1 : 0);
+                    }
+                }
+                """);
+        assertTrue(minified.contains("a- -b"), minified);
+        assertTrue(minified.contains("a+ +b"), minified);
+        assertTrue(minified.contains("a- --b"), minified);
+        assertTrue(minified.contains("a++ +b"), minified);
+        assertTrue(minified.contains("a< -b"), minified);
+    }
+
+    @Test
+    void closingGenericsStayApart() {
+        final String minified = minify("""
+                import java.util.List;
+
+                class Player {
+                    List<List<String> > lists;
+                    boolean f(int a, int b) {
+                        return a > b;
+                    }
+                }
+                """);
+        assertTrue(minified.contains("String> >"), minified);
+        assertTrue(minified.contains("a>b"), minified);
+    }
+
+    @Test
+    void commentsBetweenWordsLeaveSpace() {
+        final String minified = minify("""
+                class Player {
+                    public/* one */static/**/int// two
+                    value = 1;
+                }
+                """);
+        assertTrue(minified.contains("public static int value=1;"), minified);
+        assertFalse(minified.contains("one"), minified);
+        assertFalse(minified.contains("two"), minified);
+    }
+
+    @Test
+    void literalsAreCopiedAsIs() {
+        final String textBlock = "\"\"\"\n        keep   this\n          // and this\n        \"\"\"";
+        final String minified = minify("""
+                class Player {
+                    String s = "a  /* not a comment */  b";
+                    char c = ' ';
+                    String t = %s;
+                    double d = 0x1E+2 + 1e+2;
+                }
+                """.formatted(textBlock));
+        assertTrue(minified.contains("\"a  /* not a comment */  b\""), minified);
+        assertTrue(minified.contains("' '"), minified);
+        assertTrue(minified.contains(textBlock), minified);
+        assertTrue(minified.contains("0x1E+2+1e+2"), minified);
+    }
+
+    @Test
+    void keptRegionIsCopiedAsIs() {
+        final String kept = """
+                    // ##  Stamp
+                    //   ##   kept  as is
+                """;
+        final String code = """
+                class Player {
+                    int a = 1;
+                %s    int b = 2;
+                }
+                """.formatted(kept);
+        final int keptStart = code.indexOf(kept);
+        final String minified = minify(code, keptStart, keptStart + kept.length());
+        assertTrue(minified.contains("\n" + kept), minified);
+        assertTrue(minified.startsWith("class Player{int a=1;\n"), minified);
+    }
+
+    @Test
+    void longOutputIsBrokenIntoLines() {
+        final StringBuilder sb = new StringBuilder("class Player {\n");
+        for (int i = 0; i < 200; ++i) {
+            sb.append("    int field").append(i).append(" = ").append(i).append(";\n");
+        }
+        sb.append("}\n");
+        final String minified = minify(sb.toString());
+        final String[] lines = minified.split("\n");
+        assertTrue(lines.length > 1, minified);
+        for (int i = 0; i < lines.length; ++i) {
+            // Lines are only broken where the source had a line break, once they are long enough.
+            if (i < (lines.length - 1)) {
+                assertTrue(lines[i].length() >= 120, lines[i]);
+            }
+            assertTrue(lines[i].length() < (120 + "int field199=199;".length()), lines[i]);
+        }
+        assertEquals(sb.toString().replaceAll("\\s", ""), minified.replaceAll("\\s", ""));
+    }
+}
@@ -0,0 +1,160 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LineDiffTest {
+
+    /**
+     * Applies a patch the way a client would, checking it is meant for the given base.
+     */
+    static byte[] apply(final byte[] base, final String baseTag, final byte[] patch) {
+        int pos = indexOf(patch, 0, (byte) '\n') + 1;
+        final String[] header = new String(patch, 0, pos - 1, StandardCharsets.UTF_8).split(" ");
+        assertEquals(4, header.length);
+        assertEquals("CMPATCH", header[0]);
+        assertEquals("1", header[1]);
+        assertEquals(baseTag, header[2]);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int basePos = 0;
+        while (pos < patch.length) {
+            final int lineEnd = indexOf(patch, pos, (byte) '\n');
+            final char operation = (char) patch[pos];
+            final int count = Integer.parseInt(new String(patch, pos + 1, lineEnd - pos - 1, StandardCharsets.US_ASCII));
+            pos = lineEnd + 1;
+            switch (operation) {
+                case '=' -> {
+                    final int start = basePos;
+                    basePos = skipLines(base, basePos, count);
+                    out.write(base, start, basePos - start);
+                }
+                case '-' -> basePos = skipLines(base, basePos, count);
+                case '+' -> {
+                    out.write(patch, pos, count);
+                    pos += count;
+                }
+                default -> throw new IllegalArgumentException("Bad operation: " + operation);
+            }
+        }
+        assertEquals(base.length, basePos, "Patch must consume the whole base.");
+        return out.toByteArray();
+    }
+
+    private static int indexOf(final byte[] bytes, final int from, final byte b) {
+        for (int i = from; i < bytes.length; ++i) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return bytes.length;
+    }
+
+    private static int skipLines(final byte[] text, final int from, final int count) {
+        int pos = from;
+        for (int i = 0; i < count; ++i) {
+            pos = Math.min(indexOf(text, pos, (byte) '\n') + 1, text.length);
+        }
+        return pos;
+    }
+
+    private static byte[] text(final List<String> lines, final boolean isTerminated) {
+        final String text = String.join("\n", lines) + ((isTerminated && !lines.isEmpty()) ? "\n" : "");
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void assertRoundTrip(final byte[] base, final byte[] target) {
+        final byte[] patch = LineDiff.diff(base, "base", target, "target", Integer.MAX_VALUE / 4);
+        assertNotNull(patch);
+        assertArrayEquals(target, apply(base, "base", patch));
+    }
+
+    @Test
+    void headerNamesBothTags() {
+        final byte[] patch = LineDiff.diff(text(List.of("a"), true), "abc", text(List.of("b"), true), "def", 10);
+        assertNotNull(patch);
+        assertEquals("CMPATCH 1 abc def\n", new String(patch, 0, 18, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void identicalTexts() {
+        final byte[] text = text(List.of("a", "b", "c"), true);
+        final byte[] patch = LineDiff.diff(text, "x", text, "x", 0);
+        assertNotNull(patch);
+        assertEquals("CMPATCH 1 x x\n=3\n", new String(patch, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void emptyTexts() {
+        assertRoundTrip(new byte[0], text(List.of("a", "b"), true));
+        assertRoundTrip(text(List.of("a", "b"), true), new byte[0]);
+        assertRoundTrip(new byte[0], new byte[0]);
+    }
+
+    @Test
+    void unterminatedLastLine() {
+        assertRoundTrip(text(List.of("a", "b"), false), text(List.of("a", "b"), true));
+        assertRoundTrip(text(List.of("a", "b"), true), text(List.of("a", "c"), false));
+    }
+
+    @Test
+    void randomEditsApplyBackToTarget() {
+        final Random random = new Random(42);
+        for (int round = 0; round < 500; ++round) {
+            // A small alphabet makes repeated lines common, which is where diffs go wrong.
+            final List<String> baseLines = new ArrayList<>();
+            final int baseCount = random.nextInt(40);
+            for (int i = 0; i < baseCount; ++i) {
+                baseLines.add("line " + random.nextInt(6));
+            }
+            final List<String> targetLines = new ArrayList<>(baseLines);
+            final int editCount = random.nextInt(8);
+            for (int i = 0; i < editCount; ++i) {
+                final int index = targetLines.isEmpty() ? 0 : random.nextInt(targetLines.size());
+                switch (random.nextInt(3)) {
+                    case 0 -> targetLines.add(index, "new " + random.nextInt(6));
+                    case 1 -> {
+                        if (!targetLines.isEmpty()) {
+                            targetLines.remove(index);
+                        }
+                    }
+                    default -> {
+                        if (!targetLines.isEmpty()) {
+                            targetLines.set(index, "changed " + random.nextInt(6));
+                        }
+                    }
+                }
+            }
+            assertRoundTrip(text(baseLines, random.nextBoolean()), text(targetLines, random.nextBoolean()));
+        }
+    }
+
+    @Test
+    void tooManyEditsGiveNoPatch() {
+        final List<String> baseLines = new ArrayList<>();
+        final List<String> targetLines = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            baseLines.add("base " + i);
+            targetLines.add("target " + i);
+        }
+        final byte[] base = text(baseLines, true);
+        final byte[] target = text(targetLines, true);
+        // Replacing 20 lines takes 40 edits.
+        assertNull(LineDiff.diff(base, "base", target, "target", 39));
+        assertNotNull(LineDiff.diff(base, "base", target, "target", 40));
+        // Length difference alone exceeds the maximum.
+        assertNull(LineDiff.diff(new byte[0], "base", target, "target", 19));
+    }
+}
@@ -0,0 +1,195 @@
+// Copyright 2022 GlitchyByte
+// SPDX-License-Identifier: Apache-2.0
+
+package com.glitchybyte.codemasher.server;
+
+import com.glitchybyte.codemasher.masher.BuildPublisher;
+import com.glitchybyte.codemasher.masher.BuildSnapshot;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleSourceResponderTest {
+
+    private static final long LARGE_HISTORY = 1024 * 1024;
+
+    private static String code(final String changedLine) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("public class Main {\n");
+        for (int i = 0; i < 100; ++i) {
+            sb.append(i == 50 ? changedLine : "    int field" + i + " = " + i + ";").append('\n');
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static SingleSourceResponder responder(final BuildPublisher publisher, final long historyMaxBytes) {
+        return new SingleSourceResponder(publisher, new BuildHistory(publisher, historyMaxBytes),
+                new BuildCompressor(publisher));
+    }
+
+    /**
+     * Publishes a build and waits for it to be compressed.
+     */
+    private static BuildSnapshot publishCompressed(final BuildPublisher publisher, final BuildCompressor compressor,
+            final String code) throws InterruptedException {
+        final BuildSnapshot snapshot = publisher.publish(code);
+        final long deadline = System.currentTimeMillis() + 5000;
+        while ((compressor.get(snapshot.version()) == null) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(5);
+        }
+        assertTrue(compressor.get(snapshot.version()) != null, "Build wasn't compressed in time.");
+        return snapshot;
+    }
+
+    private static String encodingFor(final SingleSourceResponder responder, final String acceptEncoding) {
+        final SingleSourceResponder.Response response = responder.respond(
+                new SingleSourceResponder.Request(null, acceptEncoding, null));
+        assertEquals(200, response.status());
+        return response.headers().get("Content-Encoding");
+    }
+
+    private static SingleSourceResponder.Response since(final SingleSourceResponder responder, final String since) {
+        return responder.respond(new SingleSourceResponder.Request(null, null, since));
+    }
+
+    @Test
+    void patchAgainstRememberedBase() {
+        final BuildPublisher publisher = new BuildPublisher("Main.java");
+        final SingleSourceResponder responder = responder(publisher, LARGE_HISTORY);
+        final BuildSnapshot base = publisher.publish(code("    int a;"));
+        final BuildSnapshot target = publisher.publish(code("    int b;"));
+        final SingleSourceResponder.Response response = since(responder, base.tag());
+        assertEquals(226, response.status());
+        assertEquals("cmpatch", response.headers().get("IM"));
+        assertEquals(base.tag(), response.headers().get(SingleSourceResponder.DELTA_BASE));
+        assertEquals(target.tag(), response.headers().get(SingleSourceResponder.BUILD_TAG));
+        assertArrayEquals(target.bytes(), LineDiffTest.apply(base.bytes(), base.tag(), response.body()));
+    }
+
+    @Test
+    void entityTagIsAcceptedAsBase() {
+        final BuildPublisher publisher = new BuildPublisher("Main.java");
+        final SingleSourceResponder responder = responder(publisher, LARGE_HISTORY);
+        final BuildSnapshot base = publisher.publish(code("    int a;"));
+        publisher.publish(code("    int b;"));
+        assertEquals(226, since(responder, base.eTag()).status());
+        assertEquals(226, since(responder, "W/" + base.eTag()).status());
+        final String gzipETag = base.eTag().substring(0, base.eTag().length() - 1) + "-gzip\"";
+        assertEquals(226, since(responder, gzipETag).status());
+    }
+
+    @Test
+    void evictedBaseFallsBackToFullBuild() {
+        final BuildPublisher publisher = new BuildPublisher("Main.java");
+        // Only room for the current build.
+        final SingleSourceResponder responder = responder(publisher, 1);
+        final BuildSnapshot base = publisher.publish(code("    int a;"));
+        final BuildSnapshot target = publisher.publish(code("    int b;"));
+        final SingleSourceResponder.Response response = since(responder, base.tag());
+        assertEquals(200, response.status());
+        assertNull(response.headers().get(SingleSourceResponder.DELTA_BASE));
+        assertEquals(target.tag(), response.headers().get(SingleSourceResponder.BUILD_TAG));
+        assertArrayEquals(target.bytes(), response.body());
+    }
+
+    @Test
+    void baseFromAnotherRunIsNotMistakenForSameVersion() {
+        final BuildPublisher previousRun = new BuildPublisher("Main.java");
+        final BuildSnapshot previous = previousRun.publish(code("    int a;"));
+        // A restart starts versions over, so a different build gets the same version.
+        final BuildPublisher publisher = new BuildPublisher("Main.java");
+        final SingleSourceResponder responder = responder(publisher, LARGE_HISTORY);
+        final BuildSnapshot other = publisher.publish(code("    int other;"));
+        final BuildSnapshot target = publisher.publish(code("    int b;"));
+        assertEquals(previous.version(), other.version());
+        final SingleSourceResponder.Response response = since(responder, previous.tag());
+        assertEquals(200, response.status());
+        assertArrayEquals(target.bytes(), response.body());
+    }
+
+    @Test
+    void unknownBaseGivesFullBuild() {
+        final BuildPublisher publisher = new BuildPublisher("Main.java");
+        final SingleSourceResponder responder = responder(publisher, LARGE_HISTORY);
+        final BuildSnapshot target = publisher.publish(code("    int a;"));
+        assertEquals(200, since(responder, "nope").status());
+        assertEquals(200, since(responder, "").status());
+        final SingleSourceResponder.Response response = since(responder, null);
+        assertEquals(200, response.status());
+        assertEquals(target.tag(), response.headers().get(SingleSourceResponder.BUILD_TAG));
+    }
+
+    @Test
+    void currentBaseIsNotModified() {
+        final BuildPublisher publisher = new BuildPublisher("Main.java");
+        final SingleSourceResponder responder = responder(publisher, LARGE_HISTORY);
+        final BuildSnapshot target = publisher.publish(code("    int a;"));
+        final SingleSourceResponder.Response response = since(responder, target.tag());
+        assertEquals(304, response.status());
+        assertNull(response.body());
+        assertEquals(target.eTag(), response.headers().get("ETag"));
+        assertEquals(target.tag(), response.headers().get(SingleSourceResponder.BUILD_TAG));
+        assertEquals(304, since(responder, target.eTag()).status());
+    }
+
+    @Test
+    void notModifiedNamesBuild() {
+        final BuildPublisher publisher = new BuildPublisher("Main.java");
+        final SingleSourceResponder responder = responder(publisher, LARGE_HISTORY);
+        final BuildSnapshot target = publisher.publish(code("    int a;"));
+        final SingleSourceResponder.Response response = responder.respond(
+                new SingleSourceResponder.Request(target.eTag(), null, null));
+        assertEquals(304, response.status());
+        assertEquals(target.tag(), response.headers().get(SingleSourceResponder.BUILD_TAG));
+    }
+
+    @Test
+    void acceptEncodingQualities() throws InterruptedException {
+        final BuildPublisher publisher = new BuildPublisher("Main.java");
+        final BuildCompressor compressor = new BuildCompressor(publisher);
+        final SingleSourceResponder responder = new SingleSourceResponder(publisher,
+                new BuildHistory(publisher, LARGE_HISTORY), compressor);
+        publishCompressed(publisher, compressor, code("    int a;"));
+        assertNull(encodingFor(responder, null));
+        assertNull(encodingFor(responder, "identity"));
+        assertEquals("gzip", encodingFor(responder, "gzip, deflate"));
+        assertEquals("gzip", encodingFor(responder, "*"));
+        assertEquals("deflate", encodingFor(responder, "deflate;q=1, gzip;q=0.5"));
+        // A wildcard never picks a refused coding, wherever it is listed.
+        assertEquals("deflate", encodingFor(responder, "*, gzip;q=0"));
+        assertEquals("deflate", encodingFor(responder, "gzip;q=0, *"));
+        assertNull(encodingFor(responder, "gzip;q=0, deflate;q=0, *"));
+        assertNull(encodingFor(responder, "*;q=0"));
+        // The quality doesn't have to be the first parameter.
+        assertEquals("deflate", encodingFor(responder, "gzip;level=9;Q=0, deflate"));
+    }
+
+    @Test
+    void entityTagFollowsWhatIsSent() throws InterruptedException {
+        final BuildPublisher publisher = new BuildPublisher("Main.java");
+        final BuildCompressor compressor = new BuildCompressor(publisher);
+        final SingleSourceResponder responder = new SingleSourceResponder(publisher,
+                new BuildHistory(publisher, LARGE_HISTORY), compressor);
+        final BuildSnapshot base = publishCompressed(publisher, compressor, code("    int a;"));
+        final BuildSnapshot target = publishCompressed(publisher, compressor, code("    int b;"));
+        final String gzipETag = target.eTag().substring(0, target.eTag().length() - 1) + "-gzip\"";
+        final SingleSourceResponder.Response full = responder.respond(
+                new SingleSourceResponder.Request(null, "gzip", null));
+        assertEquals("gzip", full.headers().get("Content-Encoding"));
+        assertEquals(gzipETag, full.headers().get("ETag"));
+        // A patch is never encoded, so it carries the unencoded tag.
+        final SingleSourceResponder.Response patch = responder.respond(
+                new SingleSourceResponder.Request(null, "gzip", base.tag()));
+        assertEquals(226, patch.status());
+        assertNull(patch.headers().get("Content-Encoding"));
+        assertEquals(target.eTag(), patch.headers().get("ETag"));
+        final SingleSourceResponder.Response notModified = responder.respond(
+                new SingleSourceResponder.Request(gzipETag, "gzip", null));
+        assertEquals(304, notModified.status());
+        assertEquals(gzipETag, notModified.headers().get("ETag"));
+    }
+}
@@ -1,2 +1,3 @@
 rootProject.name = "code-masher"
 include("codemasher")
+include("benchmarks")